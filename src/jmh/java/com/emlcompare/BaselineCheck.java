@@ -0,0 +1,115 @@
+package com.emlcompare;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compares a JMH CSV result file (-rf csv) against the checked-in baseline and exits with
+// status 1 when a benchmark lost more throughput, or allocates more per operation, than the
+// tolerance allows and the two results' 99.9% confidence intervals do not overlap:
+//
+//   java -cp target/jmh/test-classes com.emlcompare.BaselineCheck src/jmh/baseline.csv target/jmh-results.csv [10]
+//
+// The baseline is only meaningful on comparable hardware; regenerate it when that changes.
+public class BaselineCheck {
+
+    private static final String ALLOCATION_METRIC = ":gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineCheck <baseline.csv> <results.csv> [tolerancePercent]");
+            System.exit(2);
+        }
+        Map<String, double[]> baseline = readScores(args[0]);
+        Map<String, double[]> results = readScores(args[1]);
+        double tolerance = (args.length > 2 ? Double.parseDouble(args[2]) : 10.0) / 100;
+
+        int regressions = 0;
+        for (Map.Entry<String, double[]> result : results.entrySet()) {
+            double[] base = baseline.get(result.getKey());
+            if (base == null || base[0] == 0) continue;
+            double[] current = result.getValue();
+
+            // Throughput should not drop; allocation per operation should not grow
+            boolean allocation = result.getKey().contains(ALLOCATION_METRIC);
+            double change = (current[0] - base[0]) / base[0];
+            boolean regressed = allocation
+                    ? change > tolerance && current[0] - current[1] > base[0] + base[1]
+                    : change < -tolerance && current[0] + current[1] < base[0] - base[1];
+            if (regressed) regressions++;
+            System.out.printf("%s %+7.1f%%  %s%n", regressed ? "✗" : " ", change * 100, result.getKey());
+        }
+
+        System.out.println();
+        System.out.println(regressions == 0 ? "No regressions beyond " + Math.round(tolerance * 100) + "%"
+                                            : regressions + " regression(s) beyond " + Math.round(tolerance * 100) + "%");
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    // {score, error} by benchmark name plus parameter values, for the primary result and the
+    // allocation rate per operation
+    private static Map<String, double[]> readScores(String path) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8);
+        Map<String, double[]> scores = new LinkedHashMap<>();
+        if (lines.isEmpty()) return scores;
+
+        List<String> header = parseCsvLine(lines.get(0));
+        int benchmarkColumn = header.indexOf("Benchmark");
+        int scoreColumn = header.indexOf("Score");
+        int errorColumn = header.indexOf("Score Error (99.9%)");
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) continue;
+            List<String> fields = parseCsvLine(line);
+            String benchmark = fields.get(benchmarkColumn);
+            if (benchmark.contains(":") && !benchmark.contains(ALLOCATION_METRIC)) continue;
+
+            StringBuilder key = new StringBuilder(benchmark);
+            for (int column = 0; column < header.size(); column++) {
+                if (header.get(column).startsWith("Param: ") && column < fields.size() && !fields.get(column).isEmpty()) {
+                    key.append(' ').append(header.get(column).substring("Param: ".length()))
+                       .append('=').append(fields.get(column));
+                }
+            }
+            // The error is NaN when there were too few samples to compute it
+            double error = errorColumn >= 0 ? Double.parseDouble(fields.get(errorColumn)) : 0;
+            scores.put(key.toString(), new double[] {
+                Double.parseDouble(fields.get(scoreColumn)), Double.isNaN(error) ? 0 : error
+            });
+        }
+        return scores;
+    }
+
+    // Splits one CSV line as JMH writes it: comma-separated, fields optionally double-quoted
+    private static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,140 @@
+package com.emlcompare;
+
+import jakarta.activation.DataHandler;
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import jakarta.mail.util.ByteArrayDataSource;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.Random;
+
+// Deterministic synthetic inputs for the benchmarks, so runs are comparable without shipping
+// sample mail or PDFs. Everything is derived from a fixed seed.
+final class BenchmarkInputs {
+
+    private static final String[] WORDS = {
+        "factura", "client", "contul", "total", "plată", "energie", "consum", "perioada",
+        "index", "tarif", "valoare", "scadență", "furnizor", "adresa", "cod", "loc",
+        "kWh", "lei", "TVA", "accize", "certificat", "verde", "transport", "distribuție",
+        "invoice", "amount", "due", "date", "meter", "reading", "customer", "account"
+    };
+
+    private BenchmarkInputs() {
+    }
+
+    // Number of text lines for the "small" and "large" size parameters
+    static int lineCount(String size) {
+        switch (size) {
+            case "small": return 40;
+            case "large": return 4000;
+            default: throw new IllegalArgumentException("Unknown size " + size);
+        }
+    }
+
+    // Lines of 6-14 words with numbers mixed in, roughly like invoice text
+    static String text(int lines, long seed) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder();
+        for (int line = 0; line < lines; line++) {
+            int words = 6 + random.nextInt(9);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) text.append(' ');
+                if (random.nextInt(6) == 0) {
+                    text.append(random.nextInt(10_000)).append(',').append(random.nextInt(100));
+                } else {
+                    text.append(WORDS[random.nextInt(WORDS.length)]);
+                }
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    // The same text with one word changed on every changeEvery-th line
+    static String nearIdentical(String text, int changeEvery) {
+        String[] lines = text.split("\n", -1);
+        StringBuilder revised = new StringBuilder(text.length());
+        for (int i = 0; i < lines.length; i++) {
+            if (i > 0) revised.append('\n');
+            revised.append(i % changeEvery == changeEvery / 2 ? lines[i].replaceFirst("\\S+", "modificat") : lines[i]);
+        }
+        return revised.toString();
+    }
+
+    // Body text as an HTML email would carry it: paragraphs, inline styling and entities
+    static String html(String text) {
+        StringBuilder html = new StringBuilder("<html><head><style>p { margin: 0; }</style></head><body>\n");
+        for (String line : text.split("\n")) {
+            html.append("<p style=\"font-family: Arial\">")
+                .append(line.replace("ă", "&abreve;").replace("ț", "&#539;").replace(" lei", "&nbsp;lei"))
+                .append("</p>\n");
+        }
+        return html.append("</body></html>\n").toString();
+    }
+
+    // A text-only PDF with the given number of pages of about 40 lines each
+    static byte[] pdf(int pages, long seed) throws IOException {
+        PDType1Font font = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+        try (PDDocument document = new PDDocument()) {
+            for (int page = 0; page < pages; page++) {
+                PDPage pdPage = new PDPage();
+                document.addPage(pdPage);
+                try (PDPageContentStream content = new PDPageContentStream(document, pdPage)) {
+                    content.beginText();
+                    content.setFont(font, 10);
+                    content.setLeading(14);
+                    content.newLineAtOffset(50, 740);
+                    // Standard 14 fonts only cover WinAnsi, so the diacritics are left out here
+                    for (String line : text(40, seed + page).split("\n")) {
+                        content.showText(line.replaceAll("[^\\x20-\\x7E]", "a"));
+                        content.newLine();
+                    }
+                    content.endText();
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    // Writes a multipart/mixed message with an HTML body and one PDF attachment to a temp file
+    static File eml(String html, byte[] pdf) throws Exception {
+        MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+        message.setFrom(new InternetAddress("facturare@furnizor.example"));
+        message.setRecipient(Message.RecipientType.TO, new InternetAddress("client@example.com"));
+        message.setSubject("Factura FX-25107000001 a fost generată", "UTF-8");
+
+        MimeBodyPart body = new MimeBodyPart();
+        body.setText(html, "UTF-8", "html");
+        MimeBodyPart attachment = new MimeBodyPart();
+        attachment.setDataHandler(new DataHandler(new ByteArrayDataSource(pdf, "application/pdf")));
+        attachment.setFileName("factura.pdf");
+
+        MimeMultipart multipart = new MimeMultipart("mixed");
+        multipart.addBodyPart(body);
+        multipart.addBodyPart(attachment);
+        message.setContent(multipart);
+        message.saveChanges();
+
+        File file = File.createTempFile("emlcompare-bench-", ".eml");
+        file.deleteOnExit();
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            message.writeTo(out);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,61 @@
+package com.emlcompare;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+// Parsing a message file: headers, the HTML body converted to text, and the attachment
+// digests that drive the identical-content fast path. "small" is a short email with a
+// 1-page PDF, "large" a long one with a 50-page PDF.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmlParserBenchmark {
+
+    @Param({"small", "large"})
+    public String size;
+
+    private File eml;
+    private String html;
+
+    @Setup
+    public void setup() throws Exception {
+        html = BenchmarkInputs.html(BenchmarkInputs.text(BenchmarkInputs.lineCount(size), 1));
+        eml = BenchmarkInputs.eml(html, BenchmarkInputs.pdf(size.equals("small") ? 1 : 50, 1));
+    }
+
+    @TearDown
+    public void tearDown() {
+        eml.delete();
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) throws Exception {
+        try (EmlParser.EmailData email = EmlParser.parseEml(eml)) {
+            blackhole.consume(email.getTextBody());
+            for (EmlParser.PdfAttachment attachment : email.getPdfAttachments()) {
+                blackhole.consume(attachment.getSha256());
+            }
+        }
+    }
+
+    @Benchmark
+    public String htmlToText() {
+        return HtmlTextExtractor.extractText(html);
+    }
+}
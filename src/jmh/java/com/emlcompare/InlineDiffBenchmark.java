@@ -0,0 +1,76 @@
+package com.emlcompare;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.concurrent.TimeUnit;
+
+// The phrase diff with the default options, on near-identical texts (one word changed every
+// 25 lines) and on unrelated ones, which run into the edit budget and take the fallback.
+// The LCS parity path (computeWordDiff) needs a full table and is only run on small texts.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InlineDiffBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Texts {
+        @Param({"small", "large"})
+        public String size;
+
+        @Param({"near-identical", "unrelated"})
+        public String similarity;
+
+        String original;
+        String revised;
+
+        @Setup
+        public void setup() {
+            original = BenchmarkInputs.text(BenchmarkInputs.lineCount(size), 1);
+            revised = revisedText(original, similarity, BenchmarkInputs.lineCount(size));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SmallTexts {
+        @Param({"near-identical", "unrelated"})
+        public String similarity;
+
+        String original;
+        String revised;
+
+        @Setup
+        public void setup() {
+            original = BenchmarkInputs.text(BenchmarkInputs.lineCount("small"), 1);
+            revised = revisedText(original, similarity, BenchmarkInputs.lineCount("small"));
+        }
+    }
+
+    private static String revisedText(String original, String similarity, int lines) {
+        return similarity.equals("unrelated") ? BenchmarkInputs.text(lines, 2) : BenchmarkInputs.nearIdentical(original, 25);
+    }
+
+    @Benchmark
+    public InlineDiffGenerator.InlineDiffResult myers(Texts texts) {
+        InlineDiffGenerator.DiffOptions options = new InlineDiffGenerator.DiffOptions();
+        options.setAlgorithm(InlineDiffGenerator.Algorithm.MYERS);
+        return InlineDiffGenerator.generateInlineDiff(texts.original, texts.revised, options);
+    }
+
+    @Benchmark
+    public InlineDiffGenerator.InlineDiffResult lcs(SmallTexts texts) {
+        InlineDiffGenerator.DiffOptions options = new InlineDiffGenerator.DiffOptions();
+        options.setAlgorithm(InlineDiffGenerator.Algorithm.LCS);
+        return InlineDiffGenerator.generateInlineDiff(texts.original, texts.revised, options);
+    }
+}
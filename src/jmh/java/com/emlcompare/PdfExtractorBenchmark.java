@@ -0,0 +1,40 @@
+package com.emlcompare;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.concurrent.TimeUnit;
+
+// Text extraction from an in-memory PDF, including the parallel page ranges for documents
+// of -Demlcompare.pdf.parallelMinPages pages or more
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PdfExtractorBenchmark {
+
+    @Param({"1", "10", "50"})
+    public int pages;
+
+    private byte[] pdf;
+
+    @Setup
+    public void setup() throws Exception {
+        pdf = BenchmarkInputs.pdf(pages, 1);
+    }
+
+    @Benchmark
+    public PdfExtractor.PdfText extractPages() throws Exception {
+        return PdfExtractor.extractPages(pdf);
+    }
+}
@@ -0,0 +1,55 @@
+package com.emlcompare;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Rendering the HTML report of a near-identical pair into a discarding writer, with the
+// default context collapsing and with every line written (contextLines = -1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReportBenchmark {
+
+    @Param({"small", "large"})
+    public String size;
+
+    @Param({"3", "-1"})
+    public String contextLines;
+
+    private InlineDiffGenerator.InlineDiffResult bodyDiff;
+    private final List<PdfDiffGenerator.PdfDiffResult> pdfDiffs = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        // Read once when the report generator is initialized; every parameter combination
+        // runs in its own fork, and nothing before this touches the generator
+        System.setProperty("emlcompare.report.contextLines", contextLines);
+
+        String original = BenchmarkInputs.text(BenchmarkInputs.lineCount(size), 1);
+        bodyDiff = InlineDiffGenerator.generateInlineDiff(original, BenchmarkInputs.nearIdentical(original, 25));
+    }
+
+    @Benchmark
+    public void render() throws IOException {
+        try (Writer out = Writer.nullWriter()) {
+            InlineHtmlReportGenerator.writeReport(out, bodyDiff, pdfDiffs, "original.eml", "revised.eml");
+        }
+    }
+}
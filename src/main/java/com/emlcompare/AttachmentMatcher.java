@@ -0,0 +1,351 @@
+package com.emlcompare;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+// Pairs the PDF attachments of two messages by content rather than by list position, so a
+// reordered, added or removed attachment does not get diffed against an unrelated document.
+//
+// Byte-identical attachments (same SHA-256) are paired first and need no text. The rest are
+// scored pairwise: mostly by the similarity of their text (a MinHash estimate of the Jaccard
+// similarity of their word-pair shingles), and a little by file name and size. The pairing
+// with the highest total score is then found with the Hungarian method; pairs scoring below
+// emlcompare.attachments.minScore stay unmatched and are reported as removed and added.
+final class AttachmentMatcher {
+
+    static final double MIN_SCORE = Double.parseDouble(System.getProperty("emlcompare.attachments.minScore", "0.4"));
+
+    private static final double TEXT_WEIGHT = 0.8;
+    private static final double NAME_WEIGHT = 0.1;
+    private static final double SIZE_WEIGHT = 0.1;
+    // Only breaks ties between otherwise equal candidates in favour of the original order
+    private static final double SAME_POSITION_BONUS = 1e-6;
+
+    private static final int SIGNATURE_SIZE = 128;
+    private static final long[] SEEDS = seeds(SIGNATURE_SIZE);
+
+    private AttachmentMatcher() {
+    }
+
+    // What the matcher knows about one attachment. The text may be null exactly when the
+    // attachment has a byte-identical counterpart, which makes extracting it unnecessary.
+    static final class Fingerprint {
+        private final String name;
+        private final long size;
+        private final String sha256;
+        private final PdfExtractor.PdfText text;
+        private long[] signature;
+
+        Fingerprint(String name, long size, String sha256, PdfExtractor.PdfText text) {
+            this.name = name;
+            this.size = size;
+            this.sha256 = sha256;
+            this.text = text;
+        }
+
+        String getName() { return name; }
+        String getSha256() { return sha256; }
+        PdfExtractor.PdfText getText() { return text; }
+
+        long[] getSignature() {
+            if (signature == null) {
+                signature = minHash(text.getText());
+            }
+            return signature;
+        }
+    }
+
+    // An original and a revised attachment (indexes into the two lists) and their score;
+    // byte-identical pairs score 1
+    static final class Match {
+        private final int original;
+        private final int revised;
+        private final double score;
+
+        Match(int original, int revised, double score) {
+            this.original = original;
+            this.revised = revised;
+            this.score = score;
+        }
+
+        int getOriginal() { return original; }
+        int getRevised() { return revised; }
+        double getScore() { return score; }
+    }
+
+    static final class Matching {
+        private final List<Match> matches;
+        private final List<Integer> removed;
+        private final List<Integer> added;
+
+        Matching(List<Match> matches, List<Integer> removed, List<Integer> added) {
+            this.matches = matches;
+            this.removed = removed;
+            this.added = added;
+        }
+
+        // In the order of the original attachments
+        List<Match> getMatches() { return matches; }
+
+        // Original attachments without a counterpart
+        List<Integer> getRemoved() { return removed; }
+
+        // Revised attachments without a counterpart
+        List<Integer> getAdded() { return added; }
+    }
+
+    // Pairs attachments with equal digests, in list order when a digest occurs more than
+    // once. Returns the counterpart index for each original attachment, -1 when it has none;
+    // the attachments left unpaired on either side are the ones match() needs the text of.
+    static int[] pairIdentical(List<String> originalDigests, List<String> revisedDigests) {
+        int[] counterpart = new int[originalDigests.size()];
+        boolean[] taken = new boolean[revisedDigests.size()];
+        for (int i = 0; i < originalDigests.size(); i++) {
+            counterpart[i] = -1;
+            for (int j = 0; j < revisedDigests.size(); j++) {
+                if (!taken[j] && originalDigests.get(i).equals(revisedDigests.get(j))) {
+                    counterpart[i] = j;
+                    taken[j] = true;
+                    break;
+                }
+            }
+        }
+        return counterpart;
+    }
+
+    // Revised attachments that pairIdentical() left without a counterpart
+    static boolean[] unpairedRevised(int[] counterpart, int revisedCount) {
+        boolean[] unpaired = new boolean[revisedCount];
+        Arrays.fill(unpaired, true);
+        for (int j : counterpart) {
+            if (j >= 0) unpaired[j] = false;
+        }
+        return unpaired;
+    }
+
+    static Matching match(List<Fingerprint> originals, List<Fingerprint> revised) {
+        List<String> originalDigests = new ArrayList<>();
+        originals.forEach(f -> originalDigests.add(f.getSha256()));
+        List<String> revisedDigests = new ArrayList<>();
+        revised.forEach(f -> revisedDigests.add(f.getSha256()));
+        int[] identical = pairIdentical(originalDigests, revisedDigests);
+        boolean[] revisedLeft = unpairedRevised(identical, revised.size());
+
+        List<Match> matches = new ArrayList<>();
+        List<Integer> rows = new ArrayList<>();
+        List<Integer> columns = new ArrayList<>();
+        for (int i = 0; i < originals.size(); i++) {
+            if (identical[i] >= 0) {
+                matches.add(new Match(i, identical[i], 1.0));
+            } else {
+                rows.add(i);
+            }
+        }
+        for (int j = 0; j < revised.size(); j++) {
+            if (revisedLeft[j]) columns.add(j);
+        }
+
+        List<Integer> removed = new ArrayList<>();
+        List<Integer> added = new ArrayList<>();
+        boolean[] columnMatched = new boolean[columns.size()];
+        if (!rows.isEmpty() && !columns.isEmpty()) {
+            double[][] scores = new double[rows.size()][columns.size()];
+            for (int r = 0; r < rows.size(); r++) {
+                for (int c = 0; c < columns.size(); c++) {
+                    double score = score(originals.get(rows.get(r)), revised.get(columns.get(c)));
+                    // A pair below the minimum is worth no more than leaving both unmatched
+                    scores[r][c] = score < MIN_SCORE ? 0
+                            : score + (rows.get(r).equals(columns.get(c)) ? SAME_POSITION_BONUS : 0);
+                }
+            }
+            int[] assignment = maximumAssignment(scores);
+            for (int r = 0; r < rows.size(); r++) {
+                int c = assignment[r];
+                if (c >= 0 && scores[r][c] > 0) {
+                    matches.add(new Match(rows.get(r), columns.get(c),
+                                          score(originals.get(rows.get(r)), revised.get(columns.get(c)))));
+                    columnMatched[c] = true;
+                } else {
+                    removed.add(rows.get(r));
+                }
+            }
+        } else {
+            removed.addAll(rows);
+        }
+        for (int c = 0; c < columns.size(); c++) {
+            if (!columnMatched[c]) added.add(columns.get(c));
+        }
+
+        matches.sort((a, b) -> Integer.compare(a.getOriginal(), b.getOriginal()));
+        return new Matching(matches, Collections.unmodifiableList(removed), Collections.unmodifiableList(added));
+    }
+
+    // Weighted text, name and size similarity, from 0 to 1
+    static double score(Fingerprint original, Fingerprint revised) {
+        double nameSimilarity = nameSimilarity(original.getName(), revised.getName());
+        double sizeSimilarity = original.size <= 0 || revised.size <= 0
+                ? (original.size == revised.size ? 1 : 0)
+                : (double) Math.min(original.size, revised.size) / Math.max(original.size, revised.size);
+
+        double textSimilarity;
+        boolean originalEmpty = original.getText().getText().isBlank();
+        boolean revisedEmpty = revised.getText().getText().isBlank();
+        if (originalEmpty && revisedEmpty) {
+            // Scanned documents without a text layer: the name is all there is to go on
+            textSimilarity = nameSimilarity;
+        } else if (originalEmpty || revisedEmpty) {
+            textSimilarity = 0;
+        } else {
+            textSimilarity = estimateJaccard(original.getSignature(), revised.getSignature());
+        }
+        return TEXT_WEIGHT * textSimilarity + NAME_WEIGHT * nameSimilarity + SIZE_WEIGHT * sizeSimilarity;
+    }
+
+    // 1 for the same name, 0.75 when they only differ in numbers (invoice-07.pdf and
+    // invoice-08.pdf), else 0
+    private static double nameSimilarity(String a, String b) {
+        if (a == null || b == null) return 0;
+        if (a.equalsIgnoreCase(b)) return 1;
+        return maskDigits(a).equals(maskDigits(b)) ? 0.75 : 0;
+    }
+
+    private static String maskDigits(String name) {
+        return name.toLowerCase(Locale.ROOT).replaceAll("[0-9]+", "#");
+    }
+
+    // MinHash signature over the shingles of consecutive word pairs (a single word for
+    // one-word texts): for each of the hash functions, the smallest hash of any shingle
+    static long[] minHash(String text) {
+        long[] signature = new long[SIGNATURE_SIZE];
+        Arrays.fill(signature, Long.MAX_VALUE);
+
+        long previousWord = 0;
+        boolean havePrevious = false;
+        boolean anyShingle = false;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && Character.isWhitespace(text.charAt(i))) i++;
+            if (i >= length) break;
+            long word = 0xcbf29ce484222325L;
+            while (i < length && !Character.isWhitespace(text.charAt(i))) {
+                word = (word ^ Character.toLowerCase(text.charAt(i))) * 0x100000001b3L;
+                i++;
+            }
+            if (havePrevious) {
+                addShingle(signature, previousWord * 31 + word);
+                anyShingle = true;
+            }
+            previousWord = word;
+            havePrevious = true;
+        }
+        if (!anyShingle && havePrevious) {
+            addShingle(signature, previousWord);
+        }
+        return signature;
+    }
+
+    private static void addShingle(long[] signature, long shingle) {
+        for (int k = 0; k < signature.length; k++) {
+            long hash = mix(shingle ^ SEEDS[k]);
+            if (hash < signature[k]) signature[k] = hash;
+        }
+    }
+
+    // Fraction of hash functions with the same minimum; estimates |A ∩ B| / |A ∪ B|
+    static double estimateJaccard(long[] a, long[] b) {
+        int equal = 0;
+        for (int k = 0; k < a.length; k++) {
+            if (a[k] == b[k]) equal++;
+        }
+        return (double) equal / a.length;
+    }
+
+    // Hungarian method (shortest augmenting paths with potentials) on the negated scores,
+    // padded to a square matrix. Returns the column assigned to each row, -1 for a padding
+    // column. O(n^3) in the number of attachments.
+    static int[] maximumAssignment(double[][] scores) {
+        int rows = scores.length;
+        int columns = scores[0].length;
+        int n = Math.max(rows, columns);
+
+        // 1-based arrays; column 0 is the virtual start of each augmenting path
+        double[] rowPotential = new double[n + 1];
+        double[] columnPotential = new double[n + 1];
+        int[] rowOfColumn = new int[n + 1];
+        int[] previousColumn = new int[n + 1];
+        for (int row = 1; row <= n; row++) {
+            rowOfColumn[0] = row;
+            int column = 0;
+            double[] minReduced = new double[n + 1];
+            boolean[] used = new boolean[n + 1];
+            Arrays.fill(minReduced, Double.POSITIVE_INFINITY);
+            do {
+                used[column] = true;
+                int currentRow = rowOfColumn[column];
+                double delta = Double.POSITIVE_INFINITY;
+                int nextColumn = 0;
+                for (int j = 1; j <= n; j++) {
+                    if (used[j]) continue;
+                    double reduced = cost(scores, currentRow - 1, j - 1) - rowPotential[currentRow] - columnPotential[j];
+                    if (reduced < minReduced[j]) {
+                        minReduced[j] = reduced;
+                        previousColumn[j] = column;
+                    }
+                    if (minReduced[j] < delta) {
+                        delta = minReduced[j];
+                        nextColumn = j;
+                    }
+                }
+                for (int j = 0; j <= n; j++) {
+                    if (used[j]) {
+                        rowPotential[rowOfColumn[j]] += delta;
+                        columnPotential[j] -= delta;
+                    } else {
+                        minReduced[j] -= delta;
+                    }
+                }
+                column = nextColumn;
+            } while (rowOfColumn[column] != 0);
+            do {
+                int previous = previousColumn[column];
+                rowOfColumn[column] = rowOfColumn[previous];
+                column = previous;
+            } while (column != 0);
+        }
+
+        int[] assignment = new int[rows];
+        Arrays.fill(assignment, -1);
+        for (int j = 1; j <= n; j++) {
+            int row = rowOfColumn[j] - 1;
+            if (row >= 0 && row < rows && j - 1 < columns) {
+                assignment[row] = j - 1;
+            }
+        }
+        return assignment;
+    }
+
+    // Padding rows and columns cost nothing, so they never influence the real pairs
+    private static double cost(double[][] scores, int row, int column) {
+        return row < scores.length && column < scores[0].length ? -scores[row][column] : 0;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static long[] seeds(int count) {
+        long[] seeds = new long[count];
+        long state = 0x9e3779b97f4a7c15L;
+        for (int k = 0; k < count; k++) {
+            state += 0x9e3779b97f4a7c15L;
+            seeds[k] = mix(state);
+        }
+        return seeds;
+    }
+}
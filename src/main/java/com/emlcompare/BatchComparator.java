@@ -0,0 +1,444 @@
+package com.emlcompare;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Compares many EML pairs in one JVM as a pipeline of four stages (parse, extract, diff,
+// report), each with its own thread pool and a bounded queue in front of it. Parsing and
+// report writing default to the I/O thread count, extraction and diffing to the CPU count.
+public class BatchComparator {
+
+    // Each stage thread works on one pair at a time, so the extraction and diff tasks of a
+    // pair run on the thread that picked it up and the stage pools alone bound the parallelism
+    private static final Executor SAME_THREAD = Runnable::run;
+
+    public static class EmlPair {
+        private final File original;
+        private final File revised;
+
+        public EmlPair(File original, File revised) {
+            this.original = original;
+            this.revised = revised;
+        }
+
+        public File getOriginal() { return original; }
+        public File getRevised() { return revised; }
+    }
+
+    public static class BatchSummary {
+        private final int total;
+        private final int compared;
+        private final int withDifferences;
+        private final List<String> failures;
+        private final long elapsedMillis;
+        private final PipelineMetrics metrics;
+
+        public BatchSummary(int total, int compared, int withDifferences, List<String> failures, long elapsedMillis,
+                            PipelineMetrics metrics) {
+            this.total = total;
+            this.compared = compared;
+            this.withDifferences = withDifferences;
+            this.failures = failures;
+            this.elapsedMillis = elapsedMillis;
+            this.metrics = metrics;
+        }
+
+        public int getTotal() { return total; }
+        public int getCompared() { return compared; }
+        public int getWithDifferences() { return withDifferences; }
+        public List<String> getFailures() { return failures; }
+        public long getElapsedMillis() { return elapsedMillis; }
+        public PipelineMetrics getMetrics() { return metrics; }
+    }
+
+    // Thread count of each stage and the capacity of the queue in front of it
+    public static class StageSizes {
+        private int parseThreads;
+        private int extractThreads;
+        private int diffThreads;
+        private int reportThreads;
+        private int queueCapacity;
+
+        // Parsing and report writing get the I/O threads, extraction and diffing the CPU
+        // threads; each queue holds twice as many pairs as there are CPU threads
+        public StageSizes(int cpuThreads, int ioThreads) {
+            this.parseThreads = ioThreads;
+            this.extractThreads = cpuThreads;
+            this.diffThreads = cpuThreads;
+            this.reportThreads = ioThreads;
+            this.queueCapacity = cpuThreads * 2;
+        }
+
+        public int getParseThreads() { return parseThreads; }
+        public void setParseThreads(int parseThreads) { this.parseThreads = parseThreads; }
+        public int getExtractThreads() { return extractThreads; }
+        public void setExtractThreads(int extractThreads) { this.extractThreads = extractThreads; }
+        public int getDiffThreads() { return diffThreads; }
+        public void setDiffThreads(int diffThreads) { this.diffThreads = diffThreads; }
+        public int getReportThreads() { return reportThreads; }
+        public void setReportThreads(int reportThreads) { this.reportThreads = reportThreads; }
+        public int getQueueCapacity() { return queueCapacity; }
+        public void setQueueCapacity(int queueCapacity) { this.queueCapacity = queueCapacity; }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage:");
+        System.err.println("  --dirs <originalDir> <revisedDir> <outputDir> [--threads N] [--io-threads N]");
+        System.err.println("  --pairs <manifest.tsv> <outputDir> [--threads N] [--io-threads N]");
+        System.err.println("  --match <originalDir> <revisedDir> <outputDir> [--threads N] [--io-threads N]");
+        System.err.println();
+        System.err.println("Stage sizes: --parse-threads N --extract-threads N --diff-threads N --report-threads N");
+        System.err.println("(defaults: --io-threads for parse/report, --threads for extract/diff) and --queue N,");
+        System.err.println("the pairs each stage may have waiting (default: twice --threads).");
+        System.err.println("The manifest has one 'original.eml<TAB>revised.eml' pair per line;");
+        System.err.println("relative paths are resolved against the manifest's directory.");
+        System.err.println("--match pairs messages by invoice number, or by sender, recipient and subject.");
+    }
+
+    // Entry point for EmlComparator.main when the first argument is an option. Returns the exit code.
+    public static int run(String[] args) {
+        int cpuThreads = Runtime.getRuntime().availableProcessors();
+        int ioThreads = cpuThreads * 2;
+        List<String> positional = new ArrayList<>();
+        String mode = null;
+        // Per-stage overrides, applied over the defaults derived from the two thread counts
+        Map<String, Integer> stageOptions = new HashMap<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--dirs":
+                    case "--pairs":
+                    case "--match":
+                        mode = args[i];
+                        break;
+                    case "--threads":
+                        cpuThreads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--io-threads":
+                        ioThreads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--parse-threads":
+                    case "--extract-threads":
+                    case "--diff-threads":
+                    case "--report-threads":
+                    case "--queue":
+                        String option = args[i];
+                        stageOptions.put(option, Integer.parseInt(args[++i]));
+                        break;
+                    default:
+                        positional.add(args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            printUsage();
+            return 2;
+        }
+
+        List<EmlPair> pairs;
+        File outputDir;
+        try {
+            if ("--dirs".equals(mode) && positional.size() == 3) {
+                pairs = pairByName(new File(positional.get(0)), new File(positional.get(1)));
+                outputDir = new File(positional.get(2));
+            } else if ("--pairs".equals(mode) && positional.size() == 2) {
+                pairs = readManifest(new File(positional.get(0)));
+                outputDir = new File(positional.get(1));
+            } else if ("--match".equals(mode) && positional.size() == 3) {
+                EmlPairingIndex.PairingResult pairing = EmlPairingIndex.pair(
+                        listEmlFiles(new File(positional.get(0))), listEmlFiles(new File(positional.get(1))));
+                pairs = pairing.getPairs();
+                outputDir = new File(positional.get(2));
+                reportUnmatched(pairing, outputDir);
+            } else {
+                printUsage();
+                return 2;
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            return 1;
+        }
+
+        StageSizes sizes = new StageSizes(cpuThreads, ioThreads);
+        sizes.setParseThreads(stageOptions.getOrDefault("--parse-threads", sizes.getParseThreads()));
+        sizes.setExtractThreads(stageOptions.getOrDefault("--extract-threads", sizes.getExtractThreads()));
+        sizes.setDiffThreads(stageOptions.getOrDefault("--diff-threads", sizes.getDiffThreads()));
+        sizes.setReportThreads(stageOptions.getOrDefault("--report-threads", sizes.getReportThreads()));
+        sizes.setQueueCapacity(stageOptions.getOrDefault("--queue", sizes.getQueueCapacity()));
+        if (Math.min(Math.min(sizes.getParseThreads(), sizes.getExtractThreads()),
+                     Math.min(Math.min(sizes.getDiffThreads(), sizes.getReportThreads()), sizes.getQueueCapacity())) < 1) {
+            printUsage();
+            return 2;
+        }
+
+        System.out.println("Comparing " + pairs.size() + " pair(s) with " + sizes.getParseThreads() + " parse, "
+                           + sizes.getExtractThreads() + " extract, " + sizes.getDiffThreads() + " diff and "
+                           + sizes.getReportThreads() + " report thread(s), queues of " + sizes.getQueueCapacity() + "...");
+        BatchSummary summary = compareAll(pairs, outputDir, sizes);
+        printSummary(summary);
+
+        File metricsFile = new File(System.getProperty("emlcompare.metrics.file",
+                                                       new File(outputDir, "metrics.json").getPath()));
+        try {
+            summary.getMetrics().writeJson(metricsFile.toPath(), summary.getElapsedMillis());
+            System.out.println("Stage metrics written to " + metricsFile.getPath());
+        } catch (IOException e) {
+            System.err.println("Warning: could not write " + metricsFile + ": " + e.getMessage());
+        }
+        return summary.getFailures().isEmpty() ? 0 : 1;
+    }
+
+    // Pairs files that have the same name in both directories
+    public static List<EmlPair> pairByName(File originalDir, File revisedDir) throws IOException {
+        List<EmlPair> pairs = new ArrayList<>();
+        for (File original : listEmlFiles(originalDir)) {
+            File revised = new File(revisedDir, original.getName());
+            if (revised.isFile()) {
+                pairs.add(new EmlPair(original, revised));
+            }
+        }
+        return pairs;
+    }
+
+    static List<File> listEmlFiles(File dir) throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.toLowerCase().endsWith(".eml"));
+        if (files == null) {
+            throw new IOException("Not a directory: " + dir);
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    public static List<EmlPair> readManifest(File manifest) throws IOException {
+        File baseDir = manifest.getAbsoluteFile().getParentFile();
+        List<EmlPair> pairs = new ArrayList<>();
+        for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+            if (line.isBlank() || line.startsWith("#")) continue;
+            String[] columns = line.split("\t");
+            if (columns.length != 2) {
+                throw new IOException("Invalid manifest line (expected two tab-separated paths): " + line);
+            }
+            pairs.add(new EmlPair(resolve(baseDir, columns[0].trim()), resolve(baseDir, columns[1].trim())));
+        }
+        return pairs;
+    }
+
+    // Lists messages that have no partner on the other side, and writes them to unmatched.tsv
+    private static void reportUnmatched(EmlPairingIndex.PairingResult pairing, File outputDir) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (File file : pairing.getUnmatchedOriginal()) {
+            lines.add("original\t" + file.getPath());
+        }
+        for (File file : pairing.getUnmatchedRevised()) {
+            lines.add("revised\t" + file.getPath());
+        }
+
+        System.out.println("Matched " + pairing.getPairs().size() + " pair(s); unmatched: "
+                           + pairing.getUnmatchedOriginal().size() + " original, "
+                           + pairing.getUnmatchedRevised().size() + " revised");
+        for (String line : lines) {
+            System.out.println("  ⚠ " + line);
+        }
+        if (!lines.isEmpty()) {
+            outputDir.mkdirs();
+            File unmatched = new File(outputDir, "unmatched.tsv");
+            Files.write(unmatched.toPath(), lines, StandardCharsets.UTF_8);
+            System.out.println("Unmatched messages written to " + unmatched.getPath());
+        }
+    }
+
+    private static File resolve(File baseDir, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(baseDir, path);
+    }
+
+    public static BatchSummary compareAll(List<EmlPair> pairs, File outputDir, int cpuThreads, int ioThreads) {
+        return compareAll(pairs, outputDir, new StageSizes(cpuThreads, ioThreads));
+    }
+
+    // Runs the pairs through the parse -> extract -> diff -> report stages. Each stage has its
+    // own pool, fed by a bounded queue; a stage whose successor's queue is full waits, so
+    // at most threads + queue capacity pairs sit in each stage however uneven their speeds.
+    public static BatchSummary compareAll(List<EmlPair> pairs, File outputDir, StageSizes sizes) {
+        outputDir.mkdirs();
+        long start = System.nanoTime();
+
+        ExecutorService parsePool = stagePool("parse", sizes.getParseThreads(), sizes.getQueueCapacity());
+        ExecutorService extractPool = stagePool("extract", sizes.getExtractThreads(), sizes.getQueueCapacity());
+        ExecutorService diffPool = stagePool("diff", sizes.getDiffThreads(), sizes.getQueueCapacity());
+        ExecutorService reportPool = stagePool("report", sizes.getReportThreads(), sizes.getQueueCapacity());
+
+        AtomicInteger compared = new AtomicInteger();
+        AtomicInteger withDifferences = new AtomicInteger();
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        PipelineMetrics metrics = new PipelineMetrics();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < pairs.size(); i++) {
+                EmlPair pair = pairs.get(i);
+                File report = new File(outputDir, reportName(i, pair));
+                PipelineMetrics.PairMetrics pairMetrics = new PipelineMetrics.PairMetrics(
+                        pair.getOriginal().getName(), pair.getRevised().getName());
+
+                // Blocks here while the parse queue is full
+                CompletableFuture<Void> future = CompletableFuture
+                        .supplyAsync(() -> parse(pair, pairMetrics), parsePool)
+                        .thenComposeAsync(emails -> extract(emails, pairMetrics), extractPool)
+                        .thenComposeAsync(extracted -> EmlComparator.diff(extracted, pairMetrics, SAME_THREAD), diffPool)
+                        .thenAcceptAsync(result -> {
+                            writeReport(report, pair, result, pairMetrics);
+                            compared.incrementAndGet();
+                            if (result.hasDifferences()) withDifferences.incrementAndGet();
+                        }, reportPool)
+                        .whenComplete((ignored, error) -> {
+                            pairMetrics.setFailed(error != null);
+                            metrics.record(pairMetrics);
+                            if (error != null) {
+                                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                        ? error.getCause() : error;
+                                failures.add(pair.getOriginal().getName() + " vs " + pair.getRevised().getName()
+                                             + ": " + cause);
+                            }
+                        });
+                futures.add(future);
+            }
+
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                    .exceptionally(error -> null)
+                    .join();
+        } finally {
+            for (ExecutorService pool : List.of(parsePool, extractPool, diffPool, reportPool)) {
+                pool.shutdown();
+            }
+            try {
+                for (ExecutorService pool : List.of(parsePool, extractPool, diffPool, reportPool)) {
+                    pool.awaitTermination(1, TimeUnit.MINUTES);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return new BatchSummary(pairs.size(), compared.get(), withDifferences.get(),
+                                new ArrayList<>(failures), elapsedMillis, metrics);
+    }
+
+    // Fixed pool whose queue holds at most capacity tasks. Submitting to a full queue blocks
+    // the submitting thread, normally a worker of the previous stage, until a slot frees up.
+    // Stages only ever wait on the stage after them, so the waits cannot form a cycle.
+    private static ExecutorService stagePool(String stage, int threads, int capacity) {
+        AtomicInteger created = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacity),
+                task -> {
+                    Thread thread = new Thread(task, "emlcompare-" + stage + "-" + created.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (task, executor) -> {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("The " + stage + " stage is shut down");
+                    }
+                    try {
+                        executor.getQueue().put(task);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrupted while waiting for the " + stage + " stage", e);
+                    }
+                });
+        pool.prestartAllCoreThreads();
+        return pool;
+    }
+
+    private static EmlParser.EmailData[] parse(EmlPair pair, PipelineMetrics.PairMetrics metrics) {
+        EmlParser.EmailData original = null;
+        try {
+            original = EmlComparator.parse(pair.getOriginal(), metrics);
+            return new EmlParser.EmailData[] { original, EmlComparator.parse(pair.getRevised(), metrics) };
+        } catch (Exception e) {
+            closeQuietly(original);
+            throw new CompletionException(e);
+        }
+    }
+
+    // Attachments are streamed from the message files, so both are closed once their text
+    // is extracted; the diff and report stages hold no open files
+    private static CompletableFuture<EmlComparator.ExtractedPair> extract(EmlParser.EmailData[] emails,
+                                                                          PipelineMetrics.PairMetrics metrics) {
+        return EmlComparator.extract(emails[0], emails[1], metrics, SAME_THREAD)
+                .whenComplete((extracted, error) -> {
+                    closeQuietly(emails[0]);
+                    closeQuietly(emails[1]);
+                });
+    }
+
+    static void closeQuietly(EmlParser.EmailData email) {
+        if (email == null) return;
+        try {
+            email.close();
+        } catch (IOException e) {
+            // Nothing left to read from it
+        }
+    }
+
+    private static void writeReport(File report, EmlPair pair, EmlComparator.ComparisonResult result,
+                                    PipelineMetrics.PairMetrics metrics) {
+        try (PipelineMetrics.Span span = metrics.start(PipelineMetrics.Stage.REPORT)) {
+            InlineHtmlReportGenerator.generateReport(report.getPath(), result,
+                                                     pair.getOriginal().getName(), pair.getRevised().getName());
+            span.addBytes(report.length());
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static String reportName(int index, EmlPair pair) {
+        String name = String.format("%05d_%s_vs_%s.html", index + 1,
+                                    stem(pair.getOriginal()), stem(pair.getRevised()));
+        return name.replaceAll("[^A-Za-z0-9._-]+", "_");
+    }
+
+    private static String stem(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private static void printSummary(BatchSummary summary) {
+        double seconds = Math.max(summary.getElapsedMillis(), 1) / 1000.0;
+        System.out.println();
+        System.out.println("╔════════════════════════════════════════════════════════╗");
+        System.out.println("║ Batch Summary                                          ║");
+        System.out.println("╠════════════════════════════════════════════════════════╣");
+        System.out.printf("║ Pairs:                       %-25d ║%n", summary.getTotal());
+        System.out.printf("║ Compared:                    %-25d ║%n", summary.getCompared());
+        System.out.printf("║ Pairs with differences:      %-25d ║%n", summary.getWithDifferences());
+        System.out.printf("║ Failed:                      %-25d ║%n", summary.getFailures().size());
+        System.out.printf("║ Elapsed:                     %-25s ║%n", String.format("%.1f s", seconds));
+        System.out.printf("║ Throughput:                  %-25s ║%n",
+                          String.format("%.2f pairs/s", summary.getCompared() / seconds));
+        System.out.println("╚════════════════════════════════════════════════════════╝");
+        for (String failure : summary.getFailures()) {
+            System.err.println("  ✗ " + failure);
+        }
+    }
+}
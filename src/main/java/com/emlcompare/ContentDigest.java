@@ -0,0 +1,68 @@
+package com.emlcompare;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+// SHA-256 digests used to recognise identical content before any parsing or diffing.
+final class ContentDigest {
+
+    private ContentDigest() {
+    }
+
+    // Digest of everything left in the stream, read in fixed-size blocks
+    static String sha256(InputStream in) throws IOException {
+        MessageDigest digest = newSha256();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, n);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    static String sha256(byte[] data) {
+        return HexFormat.of().formatHex(newSha256().digest(data));
+    }
+
+    // Digest of the text as the phrase tokenizer sees it: \r\n and \n line breaks are the
+    // same, each line is trimmed, and trailing empty lines are dropped. Two texts with the
+    // same digest produce the same tokens, so diffing them cannot show a difference.
+    static String normalizedTextSha256(String text) {
+        MessageDigest digest = newSha256();
+        int pendingEmptyLines = 0;
+        int lineStart = 0;
+        while (lineStart <= text.length()) {
+            int newline = text.indexOf('\n', lineStart);
+            int end = newline < 0 ? text.length() : newline;
+            // Same line split as String.split("\r?\n")
+            if (newline >= 0 && end > lineStart && text.charAt(end - 1) == '\r') end--;
+
+            if (end == lineStart) {
+                pendingEmptyLines++;
+            } else {
+                for (; pendingEmptyLines > 0; pendingEmptyLines--) {
+                    digest.update((byte) '\n');
+                }
+                digest.update(text.substring(lineStart, end).trim().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+
+            if (newline < 0) break;
+            lineStart = newline + 1;
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.emlcompare;
+
+import com.github.difflib.DiffUtils;
+import com.github.difflib.patch.AbstractDelta;
+import com.github.difflib.patch.Chunk;
+import com.github.difflib.text.DiffRowGenerator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+// Fine-grained diff of one DELETED/INSERTED pair using java-diff-utils. Only ever run on
+// the small replaced phrases, never on the whole document.
+final class DiffRefiner {
+
+    // Pairs larger than this are left as whole-phrase replacements
+    static final int MAX_REFINE_LENGTH = 4096;
+
+    private DiffRefiner() {
+    }
+
+    static InlineDiffGenerator.Refinement refine(String original, String revised,
+                                                 InlineDiffGenerator.RefinementLevel level) {
+        Function<String, List<String>> splitter = level == InlineDiffGenerator.RefinementLevel.CHARACTER
+                ? DiffRowGenerator.SPLITTER_BY_CHARACTER
+                : DiffRowGenerator.SPLITTER_BY_WORD;
+        List<String> originalParts = splitter.apply(original);
+        List<String> revisedParts = splitter.apply(revised);
+
+        PartsBuilder originalOut = new PartsBuilder();
+        PartsBuilder revisedOut = new PartsBuilder();
+        int originalPos = 0;
+        int revisedPos = 0;
+        for (AbstractDelta<String> delta : DiffUtils.diff(originalParts, revisedParts).getDeltas()) {
+            Chunk<String> source = delta.getSource();
+            Chunk<String> target = delta.getTarget();
+
+            originalOut.add(originalParts.subList(originalPos, source.getPosition()), InlineDiffGenerator.DiffSegment.Type.UNCHANGED);
+            revisedOut.add(revisedParts.subList(revisedPos, target.getPosition()), InlineDiffGenerator.DiffSegment.Type.UNCHANGED);
+            originalOut.add(source.getLines(), InlineDiffGenerator.DiffSegment.Type.DELETED);
+            revisedOut.add(target.getLines(), InlineDiffGenerator.DiffSegment.Type.INSERTED);
+
+            originalPos = source.getPosition() + source.size();
+            revisedPos = target.getPosition() + target.size();
+        }
+        originalOut.add(originalParts.subList(originalPos, originalParts.size()), InlineDiffGenerator.DiffSegment.Type.UNCHANGED);
+        revisedOut.add(revisedParts.subList(revisedPos, revisedParts.size()), InlineDiffGenerator.DiffSegment.Type.UNCHANGED);
+
+        return new InlineDiffGenerator.Refinement(originalOut.build(), revisedOut.build());
+    }
+
+    // Collects parts into segments, merging consecutive parts of the same type
+    private static final class PartsBuilder {
+        private final List<InlineDiffGenerator.DiffSegment> segments = new ArrayList<>();
+        private final StringBuilder text = new StringBuilder();
+        private InlineDiffGenerator.DiffSegment.Type type;
+
+        void add(List<String> parts, InlineDiffGenerator.DiffSegment.Type partType) {
+            if (parts.isEmpty()) return;
+            if (partType != type) {
+                flush();
+                type = partType;
+            }
+            for (String part : parts) {
+                text.append(part);
+            }
+        }
+
+        List<InlineDiffGenerator.DiffSegment> build() {
+            flush();
+            return segments;
+        }
+
+        private void flush() {
+            if (text.length() > 0) {
+                segments.add(new InlineDiffGenerator.DiffSegment(text.toString(), type));
+                text.setLength(0);
+            }
+        }
+    }
+}
@@ -1,81 +1,152 @@
 package com.emlcompare;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 public class EmlComparator {
 
+    // Result of comparing the bodies and PDF attachments of two emails
+    public static class ComparisonResult {
+        private final InlineDiffGenerator.InlineDiffResult bodyDiff;
+        private final List<PdfDiffGenerator.PdfDiffResult> pdfDiffs;
+        private final List<String> pdfLabels;
+        private final List<String> removedPdfs;
+        private final List<String> addedPdfs;
+
+        public ComparisonResult(InlineDiffGenerator.InlineDiffResult bodyDiff,
+                                List<PdfDiffGenerator.PdfDiffResult> pdfDiffs) {
+            this(bodyDiff, pdfDiffs, List.of(), List.of(), List.of());
+        }
+
+        public ComparisonResult(InlineDiffGenerator.InlineDiffResult bodyDiff,
+                                List<PdfDiffGenerator.PdfDiffResult> pdfDiffs,
+                                List<String> pdfLabels,
+                                List<String> removedPdfs,
+                                List<String> addedPdfs) {
+            this.bodyDiff = bodyDiff;
+            this.pdfDiffs = pdfDiffs;
+            this.pdfLabels = pdfLabels;
+            this.removedPdfs = removedPdfs;
+            this.addedPdfs = addedPdfs;
+        }
+
+        public InlineDiffGenerator.InlineDiffResult getBodyDiff() { return bodyDiff; }
+        public List<PdfDiffGenerator.PdfDiffResult> getPdfDiffs() { return pdfDiffs; }
+
+        // Attachment name of each entry of getPdfDiffs ("a.pdf → b.pdf" when the names differ);
+        // empty when the attachments were paired by position
+        public List<String> getPdfLabels() { return pdfLabels; }
+
+        // Attachments of the first email without a counterpart in the second
+        public List<String> getRemovedPdfs() { return removedPdfs; }
+
+        // Attachments of the second email without a counterpart in the first
+        public List<String> getAddedPdfs() { return addedPdfs; }
+
+        public boolean hasDifferences() {
+            return bodyDiff.hasDifferences() || !removedPdfs.isEmpty() || !addedPdfs.isEmpty()
+                    || pdfDiffs.stream().anyMatch(PdfDiffGenerator.PdfDiffResult::hasDifferences);
+        }
+    }
+
     public static void main(String[] args) {
-        // Hardcoded file paths
-        String file1Path = "Factura Hidroelectrica FX-25107863124 a fost generata.eml";
-        String file2Path = "Factura Hidroelectrica FX-25108508638 a fost generata.eml";
-        String outputPath = "comparison-report.html";
+        if (args.length > 0 && args[0].startsWith("--")) {
+            System.exit(BatchComparator.run(args));
+        }
+
+        // Hardcoded default file paths, overridable as: <file1.eml> <file2.eml> [report.html]
+        String file1Path = args.length > 0 ? args[0] : "Factura Hidroelectrica FX-25107863124 a fost generata.eml";
+        String file2Path = args.length > 1 ? args[1] : "Factura Hidroelectrica FX-25108508638 a fost generata.eml";
+        String outputPath = args.length > 2 ? args[2] : "comparison-report.html";
 
         System.out.println("╔════════════════════════════════════════════════════════╗");
         System.out.println("║       EML Comparison Tool                              ║");
         System.out.println("╚════════════════════════════════════════════════════════╝");
         System.out.println();
 
+        long started = System.nanoTime();
+        PipelineMetrics.PairMetrics metrics = new PipelineMetrics.PairMetrics(new File(file1Path).getName(),
+                                                                              new File(file2Path).getName());
         try {
-            // Parse EML files
-            System.out.println("[1/5] Parsing first EML file: " + file1Path);
             File file1 = new File(file1Path);
-            if (!file1.exists()) {
-                System.err.println("Error: File not found - " + file1Path);
-                System.exit(1);
+            File file2 = new File(file2Path);
+            for (File file : List.of(file1, file2)) {
+                if (!file.exists()) {
+                    System.err.println("Error: File not found - " + file.getPath());
+                    System.exit(1);
+                }
             }
-            EmlParser.EmailData email1 = EmlParser.parseEml(file1);
-            System.out.println("      ✓ Found " + email1.getPdfAttachments().size() + " PDF attachment(s)");
 
-            System.out.println();
-            System.out.println("[2/5] Parsing second EML file: " + file2Path);
-            File file2 = new File(file2Path);
-            if (!file2.exists()) {
-                System.err.println("Error: File not found - " + file2Path);
-                System.exit(1);
+            // Both files are parsed, and all attachments extracted and diffed, concurrently;
+            // the steps below wait for the parts they print
+            ExecutorService executor = pairExecutor();
+            ComparisonResult comparison;
+            EmlParser.EmailData email1;
+            EmlParser.EmailData email2;
+            try {
+                CompletableFuture<EmlParser.EmailData> parsed1 = async(() -> parse(file1, metrics), executor);
+                CompletableFuture<EmlParser.EmailData> parsed2 = async(() -> parse(file2, metrics), executor);
+                CompletableFuture<ComparisonResult> compared = compareAsync(parsed1, parsed2, metrics, executor);
+
+                System.out.println("[1/5] Parsing first EML file: " + file1Path);
+                email1 = await(parsed1);
+                System.out.println("      ✓ Found " + email1.getPdfAttachments().size() + " PDF attachment(s)");
+
+                System.out.println();
+                System.out.println("[2/5] Parsing second EML file: " + file2Path);
+                email2 = await(parsed2);
+                System.out.println("      ✓ Found " + email2.getPdfAttachments().size() + " PDF attachment(s)");
+
+                comparison = await(compared);
+            } finally {
+                executor.shutdown();
             }
-            EmlParser.EmailData email2 = EmlParser.parseEml(file2);
-            System.out.println("      ✓ Found " + email2.getPdfAttachments().size() + " PDF attachment(s)");
+            InlineDiffGenerator.InlineDiffResult bodyDiff = comparison.getBodyDiff();
+            List<PdfDiffGenerator.PdfDiffResult> pdfDiffs = comparison.getPdfDiffs();
 
             // Compare email bodies
             System.out.println();
             System.out.println("[3/5] Comparing email bodies...");
-            String body1 = email1.getTextBody() != null ? email1.getTextBody() :
-                          (email1.getHtmlBody() != null ? stripHtml(email1.getHtmlBody()) : "");
-            String body2 = email2.getTextBody() != null ? email2.getTextBody() :
-                          (email2.getHtmlBody() != null ? stripHtml(email2.getHtmlBody()) : "");
-
-            InlineDiffGenerator.InlineDiffResult bodyDiff = InlineDiffGenerator.generateInlineDiff(body1, body2);
             System.out.println("      ✓ " + (bodyDiff.hasDifferences() ? "Differences found" : "No differences") + " in email body");
 
             // Extract and compare PDFs
             System.out.println();
             System.out.println("[4/5] Extracting and comparing PDF attachments...");
-            List<InlineDiffGenerator.InlineDiffResult> pdfDiffs = new ArrayList<>();
-
-            int pdfCount = Math.min(email1.getPdfAttachments().size(), email2.getPdfAttachments().size());
-            for (int i = 0; i < pdfCount; i++) {
-                System.out.println("      Processing PDF #" + (i + 1) + ": " + email1.getPdfNames().get(i));
-                String pdf1Text = PdfExtractor.extractText(email1.getPdfAttachments().get(i));
-                String pdf2Text = PdfExtractor.extractText(email2.getPdfAttachments().get(i));
-
-                InlineDiffGenerator.InlineDiffResult pdfDiff = InlineDiffGenerator.generateInlineDiff(pdf1Text, pdf2Text);
-                pdfDiffs.add(pdfDiff);
-                System.out.println("      ✓ " + (pdfDiff.hasDifferences() ? "Differences found" : "No differences"));
+            for (int i = 0; i < pdfDiffs.size(); i++) {
+                PdfDiffGenerator.PdfDiffResult pdfDiff = pdfDiffs.get(i);
+                System.out.println("      PDF #" + (i + 1) + ": " + comparison.getPdfLabels().get(i));
+                System.out.println("      ✓ " + (pdfDiff.isIdenticalContent() ? "Identical files (extraction skipped)"
+                                                : pdfDiff.hasDifferences() ? "Differences found on " + pdfDiff.getChangedPageCount()
+                                                                             + " of " + pdfDiff.getPages().size() + " page(s)"
+                                                : "No differences"));
             }
 
-            if (email1.getPdfAttachments().size() != email2.getPdfAttachments().size()) {
-                System.out.println("      ⚠ Warning: Different number of PDF attachments (" +
-                                 email1.getPdfAttachments().size() + " vs " +
-                                 email2.getPdfAttachments().size() + ")");
+            for (String name : comparison.getRemovedPdfs()) {
+                System.out.println("      ⚠ Only in the first email (removed): " + name);
+            }
+            for (String name : comparison.getAddedPdfs()) {
+                System.out.println("      ⚠ Only in the second email (added): " + name);
             }
 
             // Generate HTML report
             System.out.println();
             System.out.println("[5/5] Generating HTML report: " + outputPath);
-            InlineHtmlReportGenerator.generateReport(outputPath, bodyDiff, pdfDiffs,
-                                             file1.getName(), file2.getName());
+            try (PipelineMetrics.Span span = metrics.start(PipelineMetrics.Stage.REPORT)) {
+                InlineHtmlReportGenerator.generateReport(outputPath, comparison, file1.getName(), file2.getName());
+                span.addBytes(new File(outputPath).length());
+            }
             System.out.println("      ✓ Report generated successfully");
 
             // Summary
@@ -85,9 +156,18 @@ public class EmlComparator {
             System.out.println("╠════════════════════════════════════════════════════════╣");
             System.out.printf("║ Email body has differences:  %-25s ║%n", bodyDiff.hasDifferences() ? "Yes" : "No");
             System.out.printf("║ PDF attachments compared:    %-25d ║%n", pdfDiffs.size());
-            long pdfWithDiffs = pdfDiffs.stream().filter(InlineDiffGenerator.InlineDiffResult::hasDifferences).count();
+            long pdfWithDiffs = pdfDiffs.stream().filter(PdfDiffGenerator.PdfDiffResult::hasDifferences).count();
             System.out.printf("║ PDFs with differences:       %-25d ║%n", pdfWithDiffs);
             System.out.println("╚════════════════════════════════════════════════════════╝");
+            System.out.println("Timings: " + metrics.formatTimings());
+
+            String metricsFile = System.getProperty("emlcompare.metrics.file");
+            if (metricsFile != null) {
+                PipelineMetrics summary = new PipelineMetrics();
+                summary.record(metrics);
+                summary.writeJson(Paths.get(metricsFile), (System.nanoTime() - started) / 1_000_000);
+                System.out.println("Metrics written to " + metricsFile);
+            }
             System.out.println();
             System.out.println("✓ Done! Open '" + outputPath + "' in your browser to view the detailed comparison.");
 
@@ -103,9 +183,269 @@ public class EmlComparator {
         }
     }
 
-    private static String stripHtml(String html) {
-        if (html == null) return "";
-        // Simple HTML stripping - removes tags but keeps content
-        return html.replaceAll("<[^>]+>", "").replaceAll("&nbsp;", " ").trim();
+    // Compares two messages that are still being parsed: extract() once both are parsed, then
+    // diff(). Both messages are closed as soon as their attachments are extracted.
+    public static CompletableFuture<ComparisonResult> compareAsync(CompletableFuture<EmlParser.EmailData> parsed1,
+                                                                   CompletableFuture<EmlParser.EmailData> parsed2,
+                                                                   PipelineMetrics.PairMetrics metrics,
+                                                                   Executor executor) {
+        return parsed1.thenCombine(parsed2, (email1, email2) -> extract(email1, email2, metrics, executor))
+                .thenCompose(extracted -> extracted)
+                .whenComplete((extracted, error) -> {
+                    parsed1.thenAccept(BatchComparator::closeQuietly);
+                    parsed2.thenAccept(BatchComparator::closeQuietly);
+                })
+                .thenCompose(extracted -> diff(extracted, metrics, executor));
+    }
+
+    private static <T> List<T> joinAll(List<CompletableFuture<T>> futures) {
+        return futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+    }
+
+    private static String digest(EmlParser.PdfAttachment attachment, PipelineMetrics.PairMetrics metrics)
+            throws IOException {
+        // Hashing streams the whole attachment, so it is counted as extract work
+        try (PipelineMetrics.Span span = metrics.start(PipelineMetrics.Stage.EXTRACT)) {
+            String sha256 = attachment.getSha256();
+            span.addBytes(attachment.getSize());
+            return sha256;
+        }
+    }
+
+    private static PdfExtractor.PdfText extractText(EmlParser.PdfAttachment attachment,
+                                                    PipelineMetrics.PairMetrics metrics,
+                                                    Executor executor) throws IOException {
+        try (PipelineMetrics.Span span = metrics.start(PipelineMetrics.Stage.EXTRACT)) {
+            return extractText(attachment, span, executor);
+        }
+    }
+
+    // Threads for the tasks of one comparison: at least two, so both parses overlap. A
+    // fork-join pool, so the page ranges of large PDFs share its threads with the attachments
+    // instead of adding the common pool's.
+    private static ExecutorService pairExecutor() {
+        AtomicInteger created = new AtomicInteger();
+        return new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()), pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("emlcompare-pair-" + created.incrementAndGet());
+            return thread;
+        }, null, false);
+    }
+
+    private interface Task<T> {
+        T call() throws Exception;
+    }
+
+    private static <T> CompletableFuture<T> async(Task<T> task, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    // Waits for the future and rethrows what the task threw
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // Parses a message and reads its body and attachment list, so the PARSE stage covers the
+    // MIME work that would otherwise happen lazily during the diff
+    static EmlParser.EmailData parse(File file, PipelineMetrics.PairMetrics metrics) throws Exception {
+        try (PipelineMetrics.Span span = metrics.start(PipelineMetrics.Stage.PARSE)) {
+            EmlParser.EmailData email = EmlParser.parseEml(file);
+            email.getTextBody();
+            email.getPdfAttachments();
+            // Jakarta Mail reads parts lazily through the shared stream, so the bytes actually
+            // read are not known here; the stage records the message file size instead
+            span.addBytes(file.length());
+            return email;
+        }
+    }
+
+    // Everything the diff needs from a pair of messages: the two body texts and the matched
+    // attachments with their text. It holds no open files, so the messages can be closed
+    // before it is diffed.
+    public static class ExtractedPair {
+        private final String body1;
+        private final String body2;
+        private final boolean sameBody;
+        private final MatchedPdfs pdfs;
+
+        ExtractedPair(String body1, String body2, boolean sameBody, MatchedPdfs pdfs) {
+            this.body1 = body1;
+            this.body2 = body2;
+            this.sameBody = sameBody;
+            this.pdfs = pdfs;
+        }
+    }
+
+    // The attachments as paired by AttachmentMatcher: per matched pair a label and the two
+    // texts (null for byte-identical pairs), and the names of the unmatched ones
+    static class MatchedPdfs {
+        private final List<String> labels = new ArrayList<>();
+        private final List<PdfExtractor.PdfText[]> texts = new ArrayList<>();
+        private final List<String> removed = new ArrayList<>();
+        private final List<String> added = new ArrayList<>();
+    }
+
+    // First half of a comparison, as a dependency graph on the executor: every attachment is
+    // hashed, and those without a byte-identical counterpart have their text extracted,
+    // independently of the others; once all are known the attachments are matched and the
+    // bodies read. A direct executor runs the same steps one after the other. The future
+    // completes once no task reads the messages any more, also when one of them failed.
+    public static CompletableFuture<ExtractedPair> extract(EmlParser.EmailData email1, EmlParser.EmailData email2,
+                                                           PipelineMetrics.PairMetrics metrics, Executor executor) {
+        List<EmlParser.PdfAttachment> pdfs1 = email1.getPdfAttachments();
+        List<EmlParser.PdfAttachment> pdfs2 = email2.getPdfAttachments();
+        List<CompletableFuture<String>> digests1 = new ArrayList<>();
+        List<CompletableFuture<String>> digests2 = new ArrayList<>();
+        pdfs1.forEach(pdf -> digests1.add(async(() -> digest(pdf, metrics), executor)));
+        pdfs2.forEach(pdf -> digests2.add(async(() -> digest(pdf, metrics), executor)));
+
+        List<CompletableFuture<String>> allDigests = new ArrayList<>(digests1);
+        allDigests.addAll(digests2);
+        return CompletableFuture.allOf(allDigests.toArray(new CompletableFuture<?>[0])).thenCompose(done -> {
+            int[] identical = AttachmentMatcher.pairIdentical(joinAll(digests1), joinAll(digests2));
+            boolean[] revisedUnpaired = AttachmentMatcher.unpairedRevised(identical, pdfs2.size());
+
+            List<CompletableFuture<PdfExtractor.PdfText>> texts1 = new ArrayList<>();
+            List<CompletableFuture<PdfExtractor.PdfText>> texts2 = new ArrayList<>();
+            for (int i = 0; i < pdfs1.size(); i++) {
+                EmlParser.PdfAttachment pdf = pdfs1.get(i);
+                texts1.add(identical[i] >= 0 ? CompletableFuture.completedFuture(null)
+                                             : async(() -> extractText(pdf, metrics, executor), executor));
+            }
+            for (int j = 0; j < pdfs2.size(); j++) {
+                EmlParser.PdfAttachment pdf = pdfs2.get(j);
+                texts2.add(!revisedUnpaired[j] ? CompletableFuture.completedFuture(null)
+                                               : async(() -> extractText(pdf, metrics, executor), executor));
+            }
+
+            List<CompletableFuture<PdfExtractor.PdfText>> allTexts = new ArrayList<>(texts1);
+            allTexts.addAll(texts2);
+            return CompletableFuture.allOf(allTexts.toArray(new CompletableFuture<?>[0])).thenCompose(extracted ->
+                    async(() -> extractedPair(email1, email2, matchPdfs(pdfs1, pdfs2, joinAll(texts1), joinAll(texts2))),
+                          executor));
+        });
+    }
+
+    private static ExtractedPair extractedPair(EmlParser.EmailData email1, EmlParser.EmailData email2,
+                                               MatchedPdfs pdfs) {
+        // Bodies that only differ in line endings or line indentation tokenize the same way
+        String digest1 = email1.getBodyDigest();
+        if (digest1 != null && digest1.equals(email2.getBodyDigest())) {
+            return new ExtractedPair(email1.getTextBody(), null, true, pdfs);
+        }
+        return new ExtractedPair(bodyText(email1), bodyText(email2), false, pdfs);
+    }
+
+    // Second half of a comparison: diffs the bodies and every matched attachment pair, each
+    // as its own task on the executor
+    public static CompletableFuture<ComparisonResult> diff(ExtractedPair extracted, PipelineMetrics.PairMetrics metrics,
+                                                           Executor executor) {
+        CompletableFuture<InlineDiffGenerator.InlineDiffResult> body = async(() -> diffBodies(extracted, metrics), executor);
+        List<CompletableFuture<PdfDiffGenerator.PdfDiffResult>> pdfs = new ArrayList<>();
+        for (PdfExtractor.PdfText[] texts : extracted.pdfs.texts) {
+            pdfs.add(texts == null
+                    ? CompletableFuture.completedFuture(PdfDiffGenerator.PdfDiffResult.identicalContent())
+                    : async(() -> diffPdfs(texts[0], texts[1], metrics), executor));
+        }
+        return body.thenCombine(CompletableFuture.allOf(pdfs.toArray(new CompletableFuture<?>[0])), (bodyDiff, done) ->
+                new ComparisonResult(bodyDiff, joinAll(pdfs), extracted.pdfs.labels,
+                                     extracted.pdfs.removed, extracted.pdfs.added));
+    }
+
+    private static InlineDiffGenerator.InlineDiffResult diffBodies(ExtractedPair extracted,
+                                                                   PipelineMetrics.PairMetrics metrics) {
+        try (PipelineMetrics.Span span = metrics.start(PipelineMetrics.Stage.DIFF)) {
+            InlineDiffGenerator.InlineDiffResult diff = extracted.sameBody ? unchangedBody(extracted.body1)
+                    : InlineDiffGenerator.generateInlineDiff(extracted.body1, extracted.body2);
+            span.addTokens(diff.getTokenCount());
+            span.addSegments(diff.getSegmentCount());
+            return diff;
+        }
+    }
+
+    // Pairs the attachments once every digest is known and every attachment without a
+    // byte-identical counterpart has its text (the other texts are null)
+    private static MatchedPdfs matchPdfs(List<EmlParser.PdfAttachment> pdfs1, List<EmlParser.PdfAttachment> pdfs2,
+                                         List<PdfExtractor.PdfText> texts1, List<PdfExtractor.PdfText> texts2)
+            throws IOException {
+        List<AttachmentMatcher.Fingerprint> originals = new ArrayList<>();
+        for (int i = 0; i < pdfs1.size(); i++) {
+            EmlParser.PdfAttachment pdf = pdfs1.get(i);
+            originals.add(new AttachmentMatcher.Fingerprint(pdfName(pdf, i), pdf.getSize(), pdf.getSha256(), texts1.get(i)));
+        }
+        List<AttachmentMatcher.Fingerprint> revised = new ArrayList<>();
+        for (int j = 0; j < pdfs2.size(); j++) {
+            EmlParser.PdfAttachment pdf = pdfs2.get(j);
+            revised.add(new AttachmentMatcher.Fingerprint(pdfName(pdf, j), pdf.getSize(), pdf.getSha256(), texts2.get(j)));
+        }
+
+        AttachmentMatcher.Matching matching = AttachmentMatcher.match(originals, revised);
+        MatchedPdfs matched = new MatchedPdfs();
+        for (AttachmentMatcher.Match match : matching.getMatches()) {
+            AttachmentMatcher.Fingerprint original = originals.get(match.getOriginal());
+            AttachmentMatcher.Fingerprint revision = revised.get(match.getRevised());
+            matched.labels.add(original.getName().equals(revision.getName()) ? original.getName()
+                               : original.getName() + " → " + revision.getName());
+            matched.texts.add(original.getSha256().equals(revision.getSha256()) ? null
+                              : new PdfExtractor.PdfText[] { original.getText(), revision.getText() });
+        }
+        matching.getRemoved().forEach(i -> matched.removed.add(originals.get(i).getName()));
+        matching.getAdded().forEach(j -> matched.added.add(revised.get(j).getName()));
+        return matched;
+    }
+
+    private static String pdfName(EmlParser.PdfAttachment pdf, int index) {
+        return pdf.getName() != null ? pdf.getName() : "attachment " + (index + 1) + ".pdf";
+    }
+
+    private static PdfDiffGenerator.PdfDiffResult diffPdfs(PdfExtractor.PdfText text1, PdfExtractor.PdfText text2,
+                                                           PipelineMetrics.PairMetrics metrics) {
+        try (PipelineMetrics.Span span = metrics.start(PipelineMetrics.Stage.DIFF)) {
+            PdfDiffGenerator.PdfDiffResult result = PdfDiffGenerator.generatePdfDiff(text1, text2);
+            for (PdfDiffGenerator.PageDiff page : result.getPages()) {
+                if (page.getDiff() != null) {
+                    span.addTokens(page.getDiff().getTokenCount());
+                    span.addSegments(page.getDiff().getSegmentCount());
+                }
+            }
+            return result;
+        }
+    }
+
+    // Page ranges of large PDFs run on the same executor as the comparison, see PdfExtractor
+    private static PdfExtractor.PdfText extractText(EmlParser.PdfAttachment attachment,
+                                                    PipelineMetrics.Span span,
+                                                    Executor executor) throws IOException {
+        return PdfTextCache.getDefault().getOrExtract(attachment.getSha256(), () -> {
+            try (InputStream is = span.count(attachment.openStream())) {
+                return PdfExtractor.extractPages(is, executor);
+            }
+        });
+    }
+
+    private static InlineDiffGenerator.InlineDiffResult unchangedBody(String text) {
+        List<InlineDiffGenerator.DiffSegment> segments = new ArrayList<>();
+        segments.add(new InlineDiffGenerator.DiffSegment(text, InlineDiffGenerator.DiffSegment.Type.UNCHANGED));
+        return new InlineDiffGenerator.InlineDiffResult(segments, false);
+    }
+
+    // HTML-only bodies are stripped the same way the parser strips them
+    private static String bodyText(EmlParser.EmailData email) {
+        return email.getTextBody() != null ? email.getTextBody() : HtmlTextExtractor.extractText(email.getHtmlBody());
     }
 }
@@ -0,0 +1,194 @@
+package com.emlcompare;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.InternetHeaders;
+import jakarta.mail.internet.MimeUtility;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+// Pairs the messages of two folders without a hand-made manifest. Only the header block of
+// each file is read; the keys extracted from it are joined through hash maps, so pairing n
+// messages is O(n) rather than comparing every message with every other one.
+public class EmlPairingIndex {
+
+    // Invoice-style identifiers such as "FX-25107863124"
+    private static final Pattern DOCUMENT_ID = Pattern.compile("(?<![A-Za-z0-9])[A-Z]{1,5}-\\d{6,}(?![0-9])");
+    private static final Pattern REPLY_PREFIX = Pattern.compile("^(?:(?:re|fw|fwd|tr)\\s*:\\s*)+", Pattern.CASE_INSENSITIVE);
+    private static final Pattern DIGITS = Pattern.compile("\\d+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    public static class MessageKeys {
+        private final File file;
+        private final String documentId;
+        private final String correspondentKey;
+
+        public MessageKeys(File file, String documentId, String correspondentKey) {
+            this.file = file;
+            this.documentId = documentId;
+            this.correspondentKey = correspondentKey;
+        }
+
+        public File getFile() { return file; }
+        // Invoice number from the subject (or file name), or null
+        public String getDocumentId() { return documentId; }
+        // Sender, recipients and the subject with all numbers masked, or null
+        public String getCorrespondentKey() { return correspondentKey; }
+    }
+
+    public static class PairingResult {
+        private final List<BatchComparator.EmlPair> pairs;
+        private final List<File> unmatchedOriginal;
+        private final List<File> unmatchedRevised;
+
+        public PairingResult(List<BatchComparator.EmlPair> pairs, List<File> unmatchedOriginal, List<File> unmatchedRevised) {
+            this.pairs = pairs;
+            this.unmatchedOriginal = unmatchedOriginal;
+            this.unmatchedRevised = unmatchedRevised;
+        }
+
+        public List<BatchComparator.EmlPair> getPairs() { return pairs; }
+        public List<File> getUnmatchedOriginal() { return unmatchedOriginal; }
+        public List<File> getUnmatchedRevised() { return unmatchedRevised; }
+    }
+
+    // Joins the two sides first on document ID (the same invoice regenerated), then the
+    // remaining messages on correspondent key (the next invoice for the same customer).
+    // When several messages share a key they are paired in file name order.
+    public static PairingResult pair(List<File> originals, List<File> revised) {
+        List<MessageKeys> originalKeys = readKeys(originals);
+        List<MessageKeys> revisedKeys = readKeys(revised);
+
+        int[] partner = new int[originalKeys.size()];
+        boolean[] revisedMatched = new boolean[revisedKeys.size()];
+        Arrays.fill(partner, -1);
+
+        join(originalKeys, revisedKeys, MessageKeys::getDocumentId, partner, revisedMatched);
+        join(originalKeys, revisedKeys, MessageKeys::getCorrespondentKey, partner, revisedMatched);
+
+        List<BatchComparator.EmlPair> pairs = new ArrayList<>();
+        List<File> unmatchedOriginal = new ArrayList<>();
+        for (int i = 0; i < partner.length; i++) {
+            if (partner[i] >= 0) {
+                pairs.add(new BatchComparator.EmlPair(originalKeys.get(i).getFile(), revisedKeys.get(partner[i]).getFile()));
+            } else {
+                unmatchedOriginal.add(originalKeys.get(i).getFile());
+            }
+        }
+        List<File> unmatchedRevised = new ArrayList<>();
+        for (int j = 0; j < revisedMatched.length; j++) {
+            if (!revisedMatched[j]) {
+                unmatchedRevised.add(revisedKeys.get(j).getFile());
+            }
+        }
+        return new PairingResult(pairs, unmatchedOriginal, unmatchedRevised);
+    }
+
+    private static void join(List<MessageKeys> originals, List<MessageKeys> revised, Function<MessageKeys, String> key,
+                             int[] partner, boolean[] revisedMatched) {
+        Map<String, ArrayDeque<Integer>> index = new HashMap<>();
+        for (int j = 0; j < revised.size(); j++) {
+            String value = key.apply(revised.get(j));
+            if (!revisedMatched[j] && value != null) {
+                index.computeIfAbsent(value, k -> new ArrayDeque<>()).add(j);
+            }
+        }
+
+        for (int i = 0; i < originals.size(); i++) {
+            String value = key.apply(originals.get(i));
+            if (partner[i] >= 0 || value == null) continue;
+            ArrayDeque<Integer> candidates = index.get(value);
+            if (candidates != null && !candidates.isEmpty()) {
+                int j = candidates.poll();
+                partner[i] = j;
+                revisedMatched[j] = true;
+            }
+        }
+    }
+
+    private static List<MessageKeys> readKeys(List<File> files) {
+        // Header blocks are small, so this is dominated by file open latency
+        return files.parallelStream().map(EmlPairingIndex::readKeys).collect(Collectors.toList());
+    }
+
+    // Reads only the header block of the message. A file whose headers cannot be read gets
+    // no keys and ends up in the unmatched list.
+    public static MessageKeys readKeys(File emlFile) {
+        InternetHeaders headers;
+        try (InputStream is = new BufferedInputStream(new FileInputStream(emlFile))) {
+            headers = new InternetHeaders(is);
+        } catch (IOException | MessagingException e) {
+            return new MessageKeys(emlFile, null, null);
+        }
+
+        String subject = decode(headers.getHeader("Subject", " "));
+        String documentId = findDocumentId(subject);
+        if (documentId == null) {
+            documentId = findDocumentId(emlFile.getName());
+        }
+
+        String from = addresses(headers.getHeader("From", ","));
+        String to = addresses(headers.getHeader("To", ","));
+        String correspondentKey = from.isEmpty() && to.isEmpty() && subject.isEmpty()
+                ? null
+                : from + "|" + to + "|" + subjectPattern(subject);
+
+        return new MessageKeys(emlFile, documentId, correspondentKey);
+    }
+
+    private static String findDocumentId(String text) {
+        Matcher matcher = DOCUMENT_ID.matcher(text);
+        return matcher.find() ? matcher.group() : null;
+    }
+
+    // Subject without reply prefixes, with every number masked, so "Factura FX-25107863124"
+    // and "Factura FX-25108508638" have the same pattern
+    static String subjectPattern(String subject) {
+        String pattern = REPLY_PREFIX.matcher(subject.trim()).replaceFirst("");
+        pattern = DOCUMENT_ID.matcher(pattern).replaceAll("#");
+        pattern = DIGITS.matcher(pattern).replaceAll("#");
+        pattern = WHITESPACE.matcher(pattern).replaceAll(" ");
+        return pattern.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String decode(String value) {
+        if (value == null) return "";
+        try {
+            return MimeUtility.decodeText(MimeUtility.unfold(value));
+        } catch (UnsupportedEncodingException e) {
+            return value;
+        }
+    }
+
+    // Lower-cased addresses only (display names change more often than mailboxes), sorted
+    private static String addresses(String value) {
+        if (value == null) return "";
+        try {
+            InternetAddress[] parsed = InternetAddress.parseHeader(MimeUtility.unfold(value), false);
+            String[] mailboxes = new String[parsed.length];
+            for (int i = 0; i < parsed.length; i++) {
+                mailboxes[i] = parsed[i].getAddress() != null ? parsed[i].getAddress().toLowerCase(Locale.ROOT) : "";
+            }
+            Arrays.sort(mailboxes);
+            return String.join(",", mailboxes);
+        } catch (AddressException e) {
+            return value.trim().toLowerCase(Locale.ROOT);
+        }
+    }
+}
@@ -3,46 +3,231 @@ package com.emlcompare;
 import jakarta.mail.*;
 import jakarta.mail.internet.MimeMessage;
 import jakarta.mail.internet.MimeMultipart;
+import jakarta.mail.util.SharedFileInputStream;
 import java.io.*;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class EmlParser {
 
-    public static class EmailData {
+    // Headers are read when the message is parsed; the MIME structure, the bodies and the
+    // attachment list are only decoded the first time they are asked for, then kept.
+    // Pairing and "is anything different?" checks that only need the headers or the
+    // attachment count therefore never decode the attachments themselves.
+    public static class EmailData implements AutoCloseable {
         private String textBody;
         private String htmlBody;
-        private List<byte[]> pdfAttachments;
-        private List<String> pdfNames;
+        private List<PdfAttachment> pdfAttachments;
+        // Message file the attachments are streamed from; null for in-memory data
+        private final Closeable source;
+        private final MimeMessage message;
+        private final String headerText;
+
+        // Parts found by the structure walk; their content is decoded by loadBodies()
+        private Part textPart;
+        private Part htmlPart;
+        private Part singlePart;
+        private boolean partsLoaded;
+        private boolean bodiesLoaded;
+        private String bodyDigest;
 
         public EmailData() {
+            this(null, null, null);
+        }
+
+        EmailData(Closeable source, MimeMessage message, String headerText) {
             this.pdfAttachments = new ArrayList<>();
-            this.pdfNames = new ArrayList<>();
+            this.source = source;
+            this.message = message;
+            this.headerText = headerText;
+            this.partsLoaded = message == null;
+            this.bodiesLoaded = message == null;
+        }
+
+        // Subject, From, To and Date lines, as they appear at the top of getTextBody()
+        public String getHeaderText() { return headerText; }
+
+        public synchronized String getTextBody() {
+            loadBodies();
+            return textBody;
         }
 
-        public String getTextBody() { return textBody; }
-        public void setTextBody(String textBody) { this.textBody = textBody; }
+        public synchronized void setTextBody(String textBody) {
+            loadBodies();
+            this.textBody = textBody;
+            this.bodyDigest = null;
+        }
 
-        public String getHtmlBody() { return htmlBody; }
-        public void setHtmlBody(String htmlBody) { this.htmlBody = htmlBody; }
+        // SHA-256 of the text body after line-ending and whitespace normalization (see
+        // ContentDigest.normalizedTextSha256), or null when there is no text body
+        public synchronized String getBodyDigest() {
+            loadBodies();
+            if (bodyDigest == null && textBody != null) {
+                bodyDigest = ContentDigest.normalizedTextSha256(textBody);
+            }
+            return bodyDigest;
+        }
 
-        public List<byte[]> getPdfAttachments() { return pdfAttachments; }
-        public List<String> getPdfNames() { return pdfNames; }
+        public synchronized String getHtmlBody() {
+            loadBodies();
+            return htmlBody;
+        }
+
+        public synchronized void setHtmlBody(String htmlBody) {
+            loadBodies();
+            this.htmlBody = htmlBody;
+        }
+
+        public synchronized List<PdfAttachment> getPdfAttachments() {
+            loadParts();
+            return pdfAttachments;
+        }
+
+        public List<String> getPdfNames() {
+            List<String> names = new ArrayList<>();
+            for (PdfAttachment attachment : getPdfAttachments()) {
+                names.add(attachment.getName());
+            }
+            return names;
+        }
+
+        public synchronized void addPdfAttachment(String name, byte[] data) {
+            loadParts();
+            pdfAttachments.add(new PdfAttachment(name, null, data));
+        }
 
-        public void addPdfAttachment(String name, byte[] data) {
-            pdfNames.add(name);
-            pdfAttachments.add(data);
+        void addPdfAttachment(String name, Part part) {
+            pdfAttachments.add(new PdfAttachment(name, part, null));
+        }
+
+        // Releases the message file. Attachments cannot be read after this.
+        @Override
+        public void close() throws IOException {
+            if (source != null) {
+                source.close();
+            }
+        }
+
+        // Walks the MIME tree without decoding any part content
+        private void loadParts() {
+            if (partsLoaded) return;
+            try {
+                if (message.isMimeType("multipart/*")) {
+                    processMimeMultipart((Multipart) message.getContent(), this);
+                } else {
+                    singlePart = message;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (MessagingException e) {
+                throw new UncheckedIOException(new IOException("Cannot parse message structure", e));
+            }
+            partsLoaded = true;
+        }
+
+        private void loadBodies() {
+            if (bodiesLoaded) return;
+            loadParts();
+            try {
+                if (singlePart != null) {
+                    processContent(singlePart.getContent(), this);
+                }
+                if (textPart != null) {
+                    textBody = textPart.getContent().toString();
+                }
+                if (htmlPart != null) {
+                    htmlBody = htmlPart.getContent().toString();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (MessagingException e) {
+                throw new UncheckedIOException(new IOException("Cannot decode message body", e));
+            }
+            textBody = combineHeadersAndBody(headerText, textBody, htmlBody);
+            bodiesLoaded = true;
         }
     }
 
+    // A PDF attachment that is decoded from the message file each time it is opened, so the
+    // decoded bytes are never all held on the heap at once
+    public static class PdfAttachment {
+        private final String name;
+        private final Part part;
+        private final byte[] data;
+        private volatile String sha256;
+        private volatile long size = -1;
+
+        PdfAttachment(String name, Part part, byte[] data) {
+            this.name = name;
+            this.part = part;
+            this.data = data;
+        }
+
+        public String getName() { return name; }
+
+        public InputStream openStream() throws IOException {
+            if (data != null) {
+                return new ByteArrayInputStream(data);
+            }
+            try {
+                return part.getInputStream();
+            } catch (MessagingException e) {
+                throw new IOException("Cannot read attachment " + name, e);
+            }
+        }
+
+        // SHA-256 of the decoded attachment, computed by streaming it once and then kept
+        public String getSha256() throws IOException {
+            String digest = sha256;
+            if (digest == null) {
+                if (data != null) {
+                    digest = ContentDigest.sha256(data);
+                    size = data.length;
+                } else {
+                    long[] count = new long[1];
+                    try (InputStream is = new FilterInputStream(openStream()) {
+                        @Override
+                        public int read(byte[] buffer, int offset, int length) throws IOException {
+                            int n = super.read(buffer, offset, length);
+                            if (n > 0) count[0] += n;
+                            return n;
+                        }
+                    }) {
+                        digest = ContentDigest.sha256(is);
+                    }
+                    size = count[0];
+                }
+                sha256 = digest;
+            }
+            return digest;
+        }
+
+        // Decoded size in bytes, counted while the digest is computed
+        public long getSize() throws IOException {
+            getSha256();
+            return size;
+        }
+
+        public byte[] getBytes() throws IOException {
+            if (data != null) {
+                return data;
+            }
+            try (InputStream is = openStream()) {
+                return readAllBytes(is);
+            }
+        }
+    }
+
+    // The message is read through a SharedFileInputStream: Jakarta Mail then keeps each part
+    // as a window onto the file instead of copying it, and attachment streams decode straight
+    // from disk. Only the headers are parsed here. The returned EmailData owns the file and
+    // must be closed.
     public static EmailData parseEml(File emlFile) throws Exception {
         Properties props = new Properties();
         Session session = Session.getDefaultInstance(props);
 
-        try (InputStream is = new FileInputStream(emlFile)) {
+        SharedFileInputStream is = new SharedFileInputStream(emlFile);
+        try {
             MimeMessage message = new MimeMessage(session, is);
-            EmailData emailData = new EmailData();
 
             // Extract headers and subject
             StringBuilder emailText = new StringBuilder();
@@ -51,55 +236,51 @@ public class EmlParser {
             emailText.append("To: ").append(message.getAllRecipients() != null && message.getAllRecipients().length > 0 ? message.getAllRecipients()[0].toString() : "").append("\n");
             emailText.append("Date: ").append(message.getSentDate() != null ? message.getSentDate().toString() : "").append("\n\n");
 
-            Object content = message.getContent();
-            processContent(content, emailData);
-
-            // Store original body content before combining with headers
-            String originalTextBody = emailData.getTextBody();
-            String originalHtmlBody = emailData.getHtmlBody();
-
-            // Combine headers with body (strip HTML if needed)
-            String body = "";
-            if (originalTextBody != null && !originalTextBody.trim().isEmpty()) {
-                body = originalTextBody;
-            } else if (originalHtmlBody != null && !originalHtmlBody.trim().isEmpty()) {
-                // Strip HTML tags and decode entities
-                body = stripHtml(originalHtmlBody);
-            }
+            return new EmailData(is, message, emailText.toString());
+        } catch (Exception e) {
+            is.close();
+            throw e;
+        }
+    }
 
-            // Add separator if body has content
-            String fullText = emailText.toString();
-            if (body != null && !body.trim().isEmpty()) {
-                fullText += "Body:\n" + body;
-            }
-            emailData.setTextBody(fullText);
+    private static String combineHeadersAndBody(String headerText, String originalTextBody, String originalHtmlBody) {
+        // Combine headers with body (strip HTML if needed)
+        String body = "";
+        if (originalTextBody != null && !originalTextBody.trim().isEmpty()) {
+            body = originalTextBody;
+        } else if (originalHtmlBody != null && !originalHtmlBody.trim().isEmpty()) {
+            // Strip HTML tags and decode entities
+            body = HtmlTextExtractor.extractText(originalHtmlBody);
+        }
 
-            return emailData;
+        // Add separator if body has content
+        String fullText = headerText;
+        if (body != null && !body.trim().isEmpty()) {
+            fullText += "Body:\n" + body;
         }
+        return fullText;
     }
 
-    private static void processContent(Object content, EmailData emailData) throws Exception {
+    private static void processContent(Object content, EmailData emailData) {
         if (content instanceof String) {
             String stringContent = (String) content;
             // Check if the content looks like HTML
             if (stringContent.trim().startsWith("<") && stringContent.contains("</")) {
                 // It's HTML content
-                if (emailData.getHtmlBody() == null) {
-                    emailData.setHtmlBody(stringContent);
+                if (emailData.htmlBody == null) {
+                    emailData.htmlBody = stringContent;
                 }
             } else {
                 // It's plain text content
-                if (emailData.getTextBody() == null) {
-                    emailData.setTextBody(stringContent);
+                if (emailData.textBody == null) {
+                    emailData.textBody = stringContent;
                 }
             }
-        } else if (content instanceof Multipart) {
-            Multipart multipart = (Multipart) content;
-            processMimeMultipart(multipart, emailData);
         }
     }
 
-    private static void processMimeMultipart(Multipart multipart, EmailData emailData) throws Exception {
+    // Records which parts hold the bodies and the PDFs; nothing is decoded here
+    private static void processMimeMultipart(Multipart multipart, EmailData emailData) throws MessagingException, IOException {
         for (int i = 0; i < multipart.getCount(); i++) {
             BodyPart bodyPart = multipart.getBodyPart(i);
 
@@ -108,38 +289,31 @@ public class EmlParser {
 
             // Handle text/html content first (even if it has inline disposition)
             if (bodyPart.isMimeType("text/html")) {
-                if (emailData.getHtmlBody() == null) {
-                    String content = bodyPart.getContent().toString();
-                    emailData.setHtmlBody(content);
+                if (emailData.htmlPart == null) {
+                    emailData.htmlPart = bodyPart;
                 }
             }
             // Handle text/plain content
             else if (bodyPart.isMimeType("text/plain")) {
-                if (emailData.getTextBody() == null) {
-                    String content = bodyPart.getContent().toString();
-                    emailData.setTextBody(content);
+                if (emailData.textPart == null) {
+                    emailData.textPart = bodyPart;
                 }
             }
             // Recursively process nested multiparts
-            else if (bodyPart.getContent() instanceof Multipart) {
+            else if (bodyPart.isMimeType("multipart/*")) {
                 processMimeMultipart((Multipart) bodyPart.getContent(), emailData);
             }
             // Handle PDF attachments (check after text content)
             else if ((Part.ATTACHMENT.equalsIgnoreCase(disposition) || Part.INLINE.equalsIgnoreCase(disposition))
                      && contentType.contains("pdf")) {
-                String fileName = bodyPart.getFileName();
-                InputStream is = bodyPart.getInputStream();
-                byte[] pdfData = readAllBytes(is);
-                emailData.addPdfAttachment(fileName, pdfData);
+                emailData.addPdfAttachment(bodyPart.getFileName(), bodyPart);
             }
 
             // Check for embedded PDFs without disposition
             if (disposition == null && contentType.contains("pdf")) {
                 String fileName = bodyPart.getFileName();
                 if (fileName != null) {
-                    InputStream is = bodyPart.getInputStream();
-                    byte[] pdfData = readAllBytes(is);
-                    emailData.addPdfAttachment(fileName, pdfData);
+                    emailData.addPdfAttachment(fileName, bodyPart);
                 }
             }
         }
@@ -154,123 +328,4 @@ public class EmlParser {
         }
         return buffer.toByteArray();
     }
-
-    private static String stripHtml(String html) {
-        if (html == null) return "";
-        // Remove script and style tags with their content
-        String text = html.replaceAll("(?i)<script[^>]*>.*?</script>", "");
-        text = text.replaceAll("(?i)<style[^>]*>.*?</style>", "");
-        // Remove HTML tags
-        text = text.replaceAll("<[^>]+>", "");
-        // Decode HTML entities (including numeric character references)
-        text = decodeHtmlEntities(text);
-        // Clean up multiple spaces and blank lines
-        text = text.replaceAll("[ \\t]+", " ");
-        text = text.replaceAll("(?m)^[ \\t]*\\r?\\n", "");
-        text = text.replaceAll("\\n{3,}", "\n\n");
-        return text.trim();
-    }
-
-    private static String decodeHtmlEntities(String text) {
-        if (text == null || text.isEmpty()) return text;
-
-        // Decode numeric character references (&#NNNN;)
-        Pattern decimalPattern = Pattern.compile("&#(\\d+);");
-        Matcher decimalMatcher = decimalPattern.matcher(text);
-        StringBuffer sb = new StringBuffer();
-        while (decimalMatcher.find()) {
-            try {
-                int code = Integer.parseInt(decimalMatcher.group(1));
-                decimalMatcher.appendReplacement(sb, String.valueOf((char) code));
-            } catch (NumberFormatException e) {
-                decimalMatcher.appendReplacement(sb, decimalMatcher.group(0));
-            }
-        }
-        decimalMatcher.appendTail(sb);
-        text = sb.toString();
-
-        // Decode hexadecimal character references (&#xHHHH;)
-        Pattern hexPattern = Pattern.compile("&#[xX]([0-9a-fA-F]+);");
-        Matcher hexMatcher = hexPattern.matcher(text);
-        sb = new StringBuffer();
-        while (hexMatcher.find()) {
-            try {
-                int code = Integer.parseInt(hexMatcher.group(1), 16);
-                hexMatcher.appendReplacement(sb, String.valueOf((char) code));
-            } catch (NumberFormatException e) {
-                hexMatcher.appendReplacement(sb, hexMatcher.group(0));
-            }
-        }
-        hexMatcher.appendTail(sb);
-        text = sb.toString();
-
-        // Decode named HTML entities
-        text = text.replaceAll("&nbsp;", " ");
-        text = text.replaceAll("&amp;", "&");
-        text = text.replaceAll("&lt;", "<");
-        text = text.replaceAll("&gt;", ">");
-        text = text.replaceAll("&quot;", "\"");
-        text = text.replaceAll("&#39;", "'");
-        text = text.replaceAll("&apos;", "'");
-
-        // Romanian diacritics
-        text = text.replaceAll("&aacute;", "á");
-        text = text.replaceAll("&Aacute;", "Á");
-        text = text.replaceAll("&acirc;", "â");
-        text = text.replaceAll("&Acirc;", "Â");
-        text = text.replaceAll("&icirc;", "î");
-        text = text.replaceAll("&Icirc;", "Î");
-        text = text.replaceAll("&scaron;", "š");
-        text = text.replaceAll("&Scaron;", "Š");
-        text = text.replaceAll("&tcaron;", "ť");
-        text = text.replaceAll("&Tcaron;", "Ť");
-
-        // Additional common Latin characters
-        text = text.replaceAll("&agrave;", "à");
-        text = text.replaceAll("&Agrave;", "À");
-        text = text.replaceAll("&atilde;", "ã");
-        text = text.replaceAll("&Atilde;", "Ã");
-        text = text.replaceAll("&auml;", "ä");
-        text = text.replaceAll("&Auml;", "Ä");
-        text = text.replaceAll("&aring;", "å");
-        text = text.replaceAll("&Aring;", "Å");
-        text = text.replaceAll("&eacute;", "é");
-        text = text.replaceAll("&Eacute;", "É");
-        text = text.replaceAll("&egrave;", "è");
-        text = text.replaceAll("&Egrave;", "È");
-        text = text.replaceAll("&ecirc;", "ê");
-        text = text.replaceAll("&Ecirc;", "Ê");
-        text = text.replaceAll("&euml;", "ë");
-        text = text.replaceAll("&Euml;", "Ë");
-        text = text.replaceAll("&iacute;", "í");
-        text = text.replaceAll("&Iacute;", "Í");
-        text = text.replaceAll("&igrave;", "ì");
-        text = text.replaceAll("&Igrave;", "Ì");
-        text = text.replaceAll("&iuml;", "ï");
-        text = text.replaceAll("&Iuml;", "Ï");
-        text = text.replaceAll("&oacute;", "ó");
-        text = text.replaceAll("&Oacute;", "Ó");
-        text = text.replaceAll("&ograve;", "ò");
-        text = text.replaceAll("&Ograve;", "Ò");
-        text = text.replaceAll("&ocirc;", "ô");
-        text = text.replaceAll("&Ocirc;", "Ô");
-        text = text.replaceAll("&otilde;", "õ");
-        text = text.replaceAll("&Otilde;", "Õ");
-        text = text.replaceAll("&ouml;", "ö");
-        text = text.replaceAll("&Ouml;", "Ö");
-        text = text.replaceAll("&uacute;", "ú");
-        text = text.replaceAll("&Uacute;", "Ú");
-        text = text.replaceAll("&ugrave;", "ù");
-        text = text.replaceAll("&Ugrave;", "Ù");
-        text = text.replaceAll("&ucirc;", "û");
-        text = text.replaceAll("&Ucirc;", "Û");
-        text = text.replaceAll("&uuml;", "ü");
-        text = text.replaceAll("&Uuml;", "Ü");
-        text = text.replaceAll("&ccedil;", "ç");
-        text = text.replaceAll("&Ccedil;", "Ç");
-        text = text.replaceAll("&ntilde;", "ñ");
-        text = text.replaceAll("&Ntilde;", "Ñ");
-
-        return text;
-    }
 }
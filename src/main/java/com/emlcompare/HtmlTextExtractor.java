@@ -0,0 +1,334 @@
+package com.emlcompare;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Turns an HTML body into plain text in a single pass: tags, comments and script/style
+// blocks are dropped (across line breaks), character references are decoded as HTML5 does
+// (numeric, and every named entity through a trie), and whitespace is cleaned up as the
+// text is written: runs of spaces/tabs become one space, blank lines are removed and the
+// result is trimmed. No tags are inserted or turned into line breaks.
+final class HtmlTextExtractor {
+
+    private static final EntityTrie ENTITIES = EntityTrie.load("html5-entities.txt");
+
+    // Numeric references in the C1 range mean Windows-1252 characters (HTML5 8.2.4.5)
+    private static final char[] WINDOWS_1252 = {
+        '€', '\u0081', '‚', 'ƒ', '„', '…', '†', '‡',
+        'ˆ', '‰', 'Š', '‹', 'Œ', '\u008D', 'Ž', '\u008F',
+        '\u0090', '‘', '’', '“', '”', '•', '–', '—',
+        '˜', '™', 'š', '›', 'œ', '\u009D', 'ž', 'Ÿ'
+    };
+
+    private HtmlTextExtractor() {
+    }
+
+    static String extractText(String html) {
+        if (html == null) return "";
+
+        TextBuilder out = new TextBuilder(html.length());
+        int length = html.length();
+        int i = 0;
+        while (i < length) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                int end = skipMarkup(html, i);
+                if (end > i) {
+                    i = end;
+                    continue;
+                }
+                out.append(c);
+                i++;
+            } else if (c == '&') {
+                i = decodeReference(html, i, out);
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+        return out.finish();
+    }
+
+    // Returns the index just past the markup starting at '<', or start when the '<' is text
+    private static int skipMarkup(String html, int start) {
+        int length = html.length();
+        if (start + 1 >= length) return start;
+        char next = html.charAt(start + 1);
+
+        if (html.startsWith("<!--", start)) {
+            int close = html.indexOf("-->", start + 4);
+            return close < 0 ? length : close + 3;
+        }
+        if (next == '!' || next == '?' || (next == '/' && (start + 2 >= length || !isLetter(html.charAt(start + 2))))) {
+            // Doctype, processing instruction or malformed end tag: up to the next '>'
+            int close = html.indexOf('>', start + 2);
+            return close < 0 ? length : close + 1;
+        }
+        if (next == '/') {
+            return skipTag(html, start + 2);
+        }
+        if (!isLetter(next)) {
+            return start;
+        }
+
+        int nameEnd = start + 1;
+        while (nameEnd < length && !isSpace(html.charAt(nameEnd))
+                && html.charAt(nameEnd) != '/' && html.charAt(nameEnd) != '>') {
+            nameEnd++;
+        }
+        int end = skipTag(html, nameEnd);
+        String name = html.substring(start + 1, nameEnd);
+        if (name.equalsIgnoreCase("script") || name.equalsIgnoreCase("style")) {
+            // Raw text: everything up to the matching end tag is dropped
+            return skipRawText(html, end, name);
+        }
+        return end;
+    }
+
+    // Skips attributes up to and including the closing '>', honouring quoted values
+    private static int skipTag(String html, int from) {
+        char quote = 0;
+        boolean afterEquals = false;
+        for (int k = from; k < html.length(); k++) {
+            char c = html.charAt(k);
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+            } else if (c == '>') {
+                return k + 1;
+            } else if (afterEquals && (c == '"' || c == '\'')) {
+                quote = c;
+                afterEquals = false;
+            } else if (c == '=') {
+                afterEquals = true;
+            } else if (!isSpace(c)) {
+                afterEquals = false;
+            }
+        }
+        return html.length();
+    }
+
+    private static int skipRawText(String html, int from, String name) {
+        int k = from;
+        while ((k = html.indexOf("</", k)) >= 0) {
+            int after = k + 2 + name.length();
+            if (html.regionMatches(true, k + 2, name, 0, name.length())
+                    && (after >= html.length() || isSpace(html.charAt(after))
+                        || html.charAt(after) == '/' || html.charAt(after) == '>')) {
+                return skipTag(html, after);
+            }
+            k += 2;
+        }
+        return html.length();
+    }
+
+    // Decodes the character reference at '&' and returns the index after it. An '&' that
+    // does not start a reference is written as-is.
+    private static int decodeReference(String html, int start, TextBuilder out) {
+        int length = html.length();
+        if (start + 1 < length && html.charAt(start + 1) == '#') {
+            boolean hex = start + 2 < length && (html.charAt(start + 2) == 'x' || html.charAt(start + 2) == 'X');
+            int k = start + (hex ? 3 : 2);
+            int digitsStart = k;
+            int code = 0;
+            while (k < length && Character.digit(html.charAt(k), hex ? 16 : 10) >= 0) {
+                // Clamp so overlong references stay out of range instead of overflowing
+                code = Math.min(code * (hex ? 16 : 10) + Character.digit(html.charAt(k), hex ? 16 : 10), 0x110000);
+                k++;
+            }
+            if (k == digitsStart) {
+                out.append('&');
+                return start + 1;
+            }
+            if (k < length && html.charAt(k) == ';') k++;
+            out.appendCodePoint(numericCharacter(code));
+            return k;
+        }
+
+        int node = 0;
+        int matchedNode = -1;
+        int matchedEnd = -1;
+        for (int k = start + 1; k < length && k - start <= EntityTrie.MAX_NAME_LENGTH; k++) {
+            node = ENTITIES.child(node, html.charAt(k));
+            if (node < 0) break;
+            if (ENTITIES.value(node) != null) {
+                matchedNode = node;
+                matchedEnd = k + 1;
+            }
+        }
+        if (matchedNode < 0) {
+            out.append('&');
+            return start + 1;
+        }
+        String value = ENTITIES.value(matchedNode);
+        for (int k = 0; k < value.length(); k++) {
+            out.append(value.charAt(k));
+        }
+        return matchedEnd;
+    }
+
+    private static int numericCharacter(int code) {
+        if (code == 0 || code > Character.MAX_CODE_POINT || (code >= 0xD800 && code <= 0xDFFF)) {
+            return 0xFFFD;
+        }
+        if (code >= 0x80 && code <= 0x9F) {
+            return WINDOWS_1252[code - 0x80];
+        }
+        return code;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    // Output stage doing the whitespace clean-up as characters arrive
+    private static final class TextBuilder {
+        private final StringBuilder text;
+        private int lineStart;
+
+        TextBuilder(int capacity) {
+            this.text = new StringBuilder(capacity);
+        }
+
+        void append(char c) {
+            if (c == ' ' || c == '\t') {
+                // A run of spaces and tabs becomes a single space
+                if (text.length() == 0 || text.charAt(text.length() - 1) != ' ') {
+                    text.append(' ');
+                }
+            } else if (c == '\n') {
+                if (isBlankLine()) {
+                    text.setLength(lineStart);
+                } else {
+                    text.append('\n');
+                    lineStart = text.length();
+                }
+            } else {
+                text.append(c);
+            }
+        }
+
+        void appendCodePoint(int codePoint) {
+            if (Character.isBmpCodePoint(codePoint)) {
+                append((char) codePoint);
+            } else {
+                text.appendCodePoint(codePoint);
+            }
+        }
+
+        // The current line holds at most a space and a carriage return
+        private boolean isBlankLine() {
+            int k = lineStart;
+            if (k < text.length() && text.charAt(k) == ' ') k++;
+            if (k < text.length() && text.charAt(k) == '\r') k++;
+            return k == text.length();
+        }
+
+        String finish() {
+            return text.toString().trim();
+        }
+    }
+
+    // Prefix tree over the entity names (without the leading '&'). Node 0 is the root; the
+    // children of each node are stored sorted by character and found by binary search.
+    private static final class EntityTrie {
+        static final int MAX_NAME_LENGTH = 32;
+
+        private final char[][] labels;
+        private final int[][] children;
+        private final String[] values;
+
+        private EntityTrie(char[][] labels, int[][] children, String[] values) {
+            this.labels = labels;
+            this.children = children;
+            this.values = values;
+        }
+
+        int child(int node, char c) {
+            char[] nodeLabels = labels[node];
+            int lo = 0;
+            int hi = nodeLabels.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (nodeLabels[mid] < c) lo = mid + 1;
+                else if (nodeLabels[mid] > c) hi = mid - 1;
+                else return children[node][mid];
+            }
+            return -1;
+        }
+
+        // Decoded text of the entity ending at this node, or null
+        String value(int node) {
+            return values[node];
+        }
+
+        static EntityTrie load(String resource) {
+            List<TreeMap<Character, Integer>> edges = new ArrayList<>();
+            List<String> nodeValues = new ArrayList<>();
+            edges.add(new TreeMap<>());
+            nodeValues.add(null);
+
+            try (InputStream in = HtmlTextExtractor.class.getResourceAsStream(resource)) {
+                if (in == null) {
+                    throw new IllegalStateException("Missing resource " + resource);
+                }
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty() || line.startsWith("#")) continue;
+                    int tab = line.indexOf('\t');
+                    String name = line.substring(0, tab);
+                    StringBuilder value = new StringBuilder();
+                    for (String codePoint : line.substring(tab + 1).split(" ")) {
+                        value.appendCodePoint(Integer.parseInt(codePoint, 16));
+                    }
+                    // &nbsp; stays an ordinary space so it collapses with the spaces around it
+                    if (name.startsWith("nbsp")) {
+                        value.setLength(0);
+                        value.append(' ');
+                    }
+
+                    int node = 0;
+                    for (int k = 0; k < name.length(); k++) {
+                        Integer next = edges.get(node).get(name.charAt(k));
+                        if (next == null) {
+                            next = edges.size();
+                            edges.get(node).put(name.charAt(k), next);
+                            edges.add(new TreeMap<>());
+                            nodeValues.add(null);
+                        }
+                        node = next;
+                    }
+                    nodeValues.set(node, value.toString());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            char[][] labels = new char[edges.size()][];
+            int[][] children = new int[edges.size()][];
+            for (int node = 0; node < edges.size(); node++) {
+                labels[node] = new char[edges.get(node).size()];
+                children[node] = new int[edges.get(node).size()];
+                int k = 0;
+                for (Map.Entry<Character, Integer> edge : edges.get(node).entrySet()) {
+                    labels[node][k] = edge.getKey();
+                    children[node][k] = edge.getValue();
+                    k++;
+                }
+            }
+            return new EntityTrie(labels, children, nodeValues.toArray(new String[0]));
+        }
+    }
+}
@@ -1,11 +1,64 @@
 package com.emlcompare;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.stream.IntStream;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class InlineDiffGenerator {
 
+    // Diff engine used for the token diff. LCS is the original full-table algorithm and is
+    // kept so output parity can be checked with -Demlcompare.diff.algorithm=lcs
+    public enum Algorithm { MYERS, LCS }
+
+    // FLAT diffs every phrase of the document in one pass. HIERARCHICAL first diffs whole lines
+    // and then re-diffs phrases only inside the changed line hunks
+    public enum Mode { FLAT, HIERARCHICAL }
+
+    // Optional second pass over each DELETED segment directly followed by an INSERTED one,
+    // highlighting exactly which words or characters changed inside the pair
+    public enum RefinementLevel { NONE, WORD, CHARACTER }
+
+    private static final Algorithm DEFAULT_ALGORITHM = Algorithm.valueOf(
+            System.getProperty("emlcompare.diff.algorithm", "myers").toUpperCase(Locale.ROOT));
+    private static final Mode DEFAULT_MODE = Mode.valueOf(
+            System.getProperty("emlcompare.diff.mode", "hierarchical").toUpperCase(Locale.ROOT));
+
+    // Budgets for the Myers diff; a value <= 0 disables the limit
+    private static final int DEFAULT_MAX_EDITS = Integer.getInteger("emlcompare.diff.maxEdits", 20_000);
+    private static final int DEFAULT_MAX_TOKENS = Integer.getInteger("emlcompare.diff.maxTokens", 2_000_000);
+    private static final long DEFAULT_TIMEOUT_MILLIS = Long.getLong("emlcompare.diff.timeoutMillis", 30_000L);
+    private static final RefinementLevel DEFAULT_REFINEMENT = RefinementLevel.valueOf(
+            System.getProperty("emlcompare.diff.refine", "none").toUpperCase(Locale.ROOT));
+
+    public static class DiffOptions {
+        private Algorithm algorithm = DEFAULT_ALGORITHM;
+        private Mode mode = DEFAULT_MODE;
+        private int maxEdits = DEFAULT_MAX_EDITS;
+        private int maxTokens = DEFAULT_MAX_TOKENS;
+        private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+        private RefinementLevel refinement = DEFAULT_REFINEMENT;
+
+        public Algorithm getAlgorithm() { return algorithm; }
+        public void setAlgorithm(Algorithm algorithm) { this.algorithm = algorithm; }
+
+        public Mode getMode() { return mode; }
+        public void setMode(Mode mode) { this.mode = mode; }
+
+        public int getMaxEdits() { return maxEdits; }
+        public void setMaxEdits(int maxEdits) { this.maxEdits = maxEdits; }
+
+        public int getMaxTokens() { return maxTokens; }
+        public void setMaxTokens(int maxTokens) { this.maxTokens = maxTokens; }
+
+        public long getTimeoutMillis() { return timeoutMillis; }
+        public void setTimeoutMillis(long timeoutMillis) { this.timeoutMillis = timeoutMillis; }
+
+        public RefinementLevel getRefinement() { return refinement; }
+        public void setRefinement(RefinementLevel refinement) { this.refinement = refinement; }
+    }
+
     public static class DiffSegment {
         public enum Type { UNCHANGED, DELETED, INSERTED }
 
@@ -21,20 +74,129 @@ public class InlineDiffGenerator {
         public Type getType() { return type; }
     }
 
+    // Word- or character-level detail for a DELETED segment and the INSERTED segment after it.
+    // The original parts are UNCHANGED/DELETED, the revised parts UNCHANGED/INSERTED.
+    public static class Refinement {
+        private final List<DiffSegment> originalParts;
+        private final List<DiffSegment> revisedParts;
+
+        public Refinement(List<DiffSegment> originalParts, List<DiffSegment> revisedParts) {
+            this.originalParts = originalParts;
+            this.revisedParts = revisedParts;
+        }
+
+        public List<DiffSegment> getOriginalParts() { return originalParts; }
+        public List<DiffSegment> getRevisedParts() { return revisedParts; }
+    }
+
     public static class InlineDiffResult {
-        private final List<DiffSegment> segments;
+        private List<DiffSegment> segments;
+        private final SegmentBuilder runs;
         private final boolean hasDifferences;
+        private final String approximation;
+        private final RefinementLevel refinementLevel;
+        private final int tokenCount;
+        // Memoized refinements by index of the DELETED segment; filled lazily
+        private final Refinement[] refinements;
 
         public InlineDiffResult(List<DiffSegment> segments, boolean hasDifferences) {
             this.segments = segments;
+            this.runs = null;
+            this.hasDifferences = hasDifferences;
+            this.approximation = null;
+            this.refinementLevel = RefinementLevel.NONE;
+            this.tokenCount = 0;
+            this.refinements = null;
+        }
+
+        InlineDiffResult(SegmentBuilder runs, boolean hasDifferences, String approximation,
+                         RefinementLevel refinementLevel, int tokenCount) {
+            this.runs = runs;
             this.hasDifferences = hasDifferences;
+            this.approximation = approximation;
+            this.refinementLevel = refinementLevel;
+            this.tokenCount = tokenCount;
+            this.refinements = refinementLevel != RefinementLevel.NONE ? new Refinement[runs.size()] : null;
+        }
+
+        // Materializes the runs as DiffSegment objects on first use. Renderers that only need
+        // to stream the text should use getSegmentCount/getSegmentType/appendSegmentText.
+        public List<DiffSegment> getSegments() {
+            if (segments == null) {
+                List<DiffSegment> materialized = new ArrayList<>(runs.size());
+                for (int i = 0; i < runs.size(); i++) {
+                    materialized.add(new DiffSegment(runs.text(i), runs.type(i)));
+                }
+                segments = materialized;
+            }
+            return segments;
+        }
+
+        public int getSegmentCount() {
+            return runs != null ? runs.size() : segments.size();
+        }
+
+        public DiffSegment.Type getSegmentType(int index) {
+            return runs != null ? runs.type(index) : segments.get(index).getType();
+        }
+
+        public void appendSegmentText(int index, Appendable out) throws IOException {
+            if (runs != null) {
+                runs.appendText(index, out);
+            } else {
+                out.append(segments.get(index).getText());
+            }
         }
 
-        public List<DiffSegment> getSegments() { return segments; }
         public boolean hasDifferences() { return hasDifferences; }
+
+        // Returns the refinement of segment index and index + 1 when they are a small
+        // DELETED/INSERTED pair and refinement is enabled, otherwise null. Computed on first use.
+        public Refinement getRefinement(int index) {
+            if (refinements == null || index + 1 >= getSegmentCount()
+                    || getSegmentType(index) != DiffSegment.Type.DELETED
+                    || getSegmentType(index + 1) != DiffSegment.Type.INSERTED) {
+                return null;
+            }
+            Refinement refinement = refinements[index];
+            if (refinement == null) {
+                String deletedText = runs.text(index);
+                String insertedText = runs.text(index + 1);
+                if (deletedText.length() > DiffRefiner.MAX_REFINE_LENGTH
+                        || insertedText.length() > DiffRefiner.MAX_REFINE_LENGTH) {
+                    return null;
+                }
+                refinement = DiffRefiner.refine(deletedText, insertedText, refinementLevel);
+                refinements[index] = refinement;
+            }
+            return refinement;
+        }
+
+        // Computes every refinement up front, spreading the pairs across the common pool
+        public void refineAll() {
+            if (refinements == null) return;
+            IntStream.range(0, getSegmentCount() - 1).parallel().forEach(this::getRefinement);
+        }
+
+        // True when a diff budget was exceeded and the segments come from a coarse fallback
+        public boolean isApproximate() { return approximation != null; }
+        public String getApproximationReason() { return approximation; }
+
+        // Tokens of both texts together; 0 when the texts were not tokenized
+        public int getTokenCount() { return tokenCount; }
     }
 
     public static InlineDiffResult generateInlineDiff(String original, String revised) {
+        return generateInlineDiff(original, revised, new DiffOptions());
+    }
+
+    public static InlineDiffResult generateInlineDiff(String original, String revised, Algorithm algorithm) {
+        DiffOptions options = new DiffOptions();
+        options.setAlgorithm(algorithm);
+        return generateInlineDiff(original, revised, options);
+    }
+
+    public static InlineDiffResult generateInlineDiff(String original, String revised, DiffOptions options) {
         if (original == null) original = "";
         if (revised == null) revised = "";
 
@@ -44,17 +206,78 @@ public class InlineDiffGenerator {
             return new InlineDiffResult(segments, false);
         }
 
-        // Split into words and whitespace
-        List<String> originalTokens = tokenize(original);
-        List<String> revisedTokens = tokenize(revised);
+        TokenDictionary dictionary = new TokenDictionary();
+        SegmentBuilder segments;
+        String approximation = null;
+        int tokenCount;
+        if (options.getAlgorithm() == Algorithm.LCS) {
+            // Parity mode: original regex tokenizer and LCS table
+            int[] originalTokens = dictionary.encode(tokenize(original));
+            int[] revisedTokens = dictionary.encode(tokenize(revised));
+            tokenCount = originalTokens.length + revisedTokens.length;
+            segments = computeWordDiff(originalTokens, revisedTokens, dictionary);
+        } else {
+            // Scan into interned phrase IDs and line IDs (the line pass doubles as the coarse fallback)
+            TokenDictionary lineDictionary = new TokenDictionary();
+            PhraseTokenizer.Tokens originalTokens = PhraseTokenizer.tokenize(original, dictionary, lineDictionary);
+            PhraseTokenizer.Tokens revisedTokens = PhraseTokenizer.tokenize(revised, dictionary, lineDictionary);
+
+            tokenCount = originalTokens.ids.length + revisedTokens.ids.length;
+            MyersDiff.Budget budget = new MyersDiff.Budget(options.getMaxEdits(), options.getTimeoutMillis());
+            boolean withinTokenBudget = options.getMaxTokens() <= 0 || tokenCount <= options.getMaxTokens();
+            boolean[][] lineChanges = null;
+            boolean[][] changes = null;
+            if (!withinTokenBudget) {
+                approximation = "token count " + tokenCount + " exceeds " + options.getMaxTokens();
+            } else {
+                try {
+                    if (options.getMode() == Mode.FLAT) {
+                        changes = MyersDiff.diff(originalTokens.ids, revisedTokens.ids, budget);
+                    } else {
+                        // Line-level pass over hashed lines, then phrase-level pass only inside the
+                        // changed hunks between the matched lines
+                        lineChanges = MyersDiff.diff(originalTokens.lineIds, revisedTokens.lineIds, budget);
+                        int[][] runs = matchedLineRuns(originalTokens, revisedTokens, lineChanges);
+                        changes = MyersDiff.diff(originalTokens.ids, revisedTokens.ids, runs[0], runs[1], runs[2], budget);
+                    }
+                } catch (MyersDiff.BudgetExceededException e) {
+                    approximation = e.getMessage();
+                }
+            }
+
+            if (approximation != null) {
+                // Budget exceeded: fall back to matching whole lines, unless the line pass is what
+                // ran out of budget. The retry gets a shorter deadline of its own.
+                boolean linePassFailed = withinTokenBudget && options.getMode() == Mode.HIERARCHICAL && lineChanges == null;
+                if (lineChanges == null && !linePassFailed) {
+                    try {
+                        MyersDiff.Budget coarseBudget = new MyersDiff.Budget(options.getMaxEdits(), options.getTimeoutMillis() / 4);
+                        lineChanges = MyersDiff.diff(originalTokens.lineIds, revisedTokens.lineIds, coarseBudget);
+                    } catch (MyersDiff.BudgetExceededException e) {
+                        // Keep lineChanges null
+                    }
+                }
 
-        // Compute word-level diff using Myers algorithm
-        List<DiffSegment> segments = computeWordDiff(originalTokens, revisedTokens);
+                if (lineChanges != null) {
+                    int[][] runs = matchedLineRuns(originalTokens, revisedTokens, lineChanges);
+                    changes = MyersDiff.replace(originalTokens.ids, revisedTokens.ids, runs[0], runs[1], runs[2]);
+                    approximation += "; showing changed lines only";
+                } else {
+                    // Last resort: one replaced block between the common head and tail
+                    changes = MyersDiff.replace(originalTokens.ids, revisedTokens.ids, new int[0], new int[0], new int[0]);
+                    approximation += "; showing the changed region as a single block";
+                }
+            }
+            segments = buildSegments(originalTokens.ids, revisedTokens.ids, changes, dictionary);
+        }
 
-        return new InlineDiffResult(segments, true);
+        return new InlineDiffResult(segments, true, approximation, options.getRefinement(), tokenCount);
     }
 
-    private static List<String> tokenize(String text) {
+    // Original regex-based tokenizer, kept for the LCS parity mode and as the reference
+    // PhraseTokenizerTest checks against. PhraseTokenizer produces the same tokens in a
+    // single pass.
+    static List<String> tokenize(String text) {
         List<String> tokens = new ArrayList<>();
 
         // Split text into lines
@@ -106,13 +329,78 @@ public class InlineDiffGenerator {
         return tokens;
     }
 
-    private static List<DiffSegment> computeWordDiff(List<String> original, List<String> revised) {
-        int[][] dp = new int[original.size() + 1][revised.size() + 1];
+    // Turns every matched line pair into a known-equal run of phrase tokens, returned as
+    // {runA, runB, runLength}. Trimmed lines that are equal produce equal phrases; the run
+    // excludes the trailing newline, which may differ for the last line.
+    private static int[][] matchedLineRuns(PhraseTokenizer.Tokens original, PhraseTokenizer.Tokens revised,
+                                           boolean[][] lineChanges) {
+        boolean[] deletedLines = lineChanges[0];
+        boolean[] insertedLines = lineChanges[1];
+
+        int matched = 0;
+        for (boolean deletedLine : deletedLines) if (!deletedLine) matched++;
+        int[] runA = new int[matched];
+        int[] runB = new int[matched];
+        int[] runLength = new int[matched];
+        int run = 0;
+        int i = 0;
+        int j = 0;
+        while (i < original.lineCount && j < revised.lineCount) {
+            if (deletedLines[i]) {
+                i++;
+            } else if (insertedLines[j]) {
+                j++;
+            } else {
+                runA[run] = original.lineStarts[i];
+                runB[run] = revised.lineStarts[j];
+                runLength[run] = lineTokenEnd(original.lineStarts, original.lineCount, i) - original.lineStarts[i];
+                run++;
+                i++;
+                j++;
+            }
+        }
+        return new int[][] { runA, runB, runLength };
+    }
+
+    private static int lineTokenEnd(int[] lineStarts, int lineCount, int line) {
+        // Lines other than the last are followed by a "\n" separator token
+        return line < lineCount - 1 ? lineStarts[line + 1] - 1 : lineStarts[lineCount];
+    }
+
+    private static SegmentBuilder buildSegments(int[] original, int[] revised, boolean[][] changes,
+                                                TokenDictionary dictionary) {
+        boolean[] deleted = changes[0];
+        boolean[] inserted = changes[1];
+
+        // Walk both sequences forward, emitting deletions before insertions in each change
+        // block so the output has the same shape as the LCS backtrack
+        SegmentBuilder segments = new SegmentBuilder(dictionary, original, revised);
+        int i = 0;
+        int j = 0;
+        while (i < original.length || j < revised.length) {
+            if (i < original.length && deleted[i]) {
+                segments.add(DiffSegment.Type.DELETED, i);
+                i++;
+            } else if (j < revised.length && inserted[j]) {
+                segments.add(DiffSegment.Type.INSERTED, j);
+                j++;
+            } else {
+                segments.add(DiffSegment.Type.UNCHANGED, i);
+                i++;
+                j++;
+            }
+        }
+
+        return segments;
+    }
+
+    private static SegmentBuilder computeWordDiff(int[] original, int[] revised, TokenDictionary dictionary) {
+        int[][] dp = new int[original.length + 1][revised.length + 1];
 
         // Fill DP table for LCS
-        for (int i = 1; i <= original.size(); i++) {
-            for (int j = 1; j <= revised.size(); j++) {
-                if (original.get(i - 1).equals(revised.get(j - 1))) {
+        for (int i = 1; i <= original.length; i++) {
+            for (int j = 1; j <= revised.length; j++) {
+                if (original[i - 1] == revised[j - 1]) {
                     dp[i][j] = dp[i - 1][j - 1] + 1;
                 } else {
                     dp[i][j] = Math.max(dp[i - 1][j], dp[i][j - 1]);
@@ -121,51 +409,25 @@ public class InlineDiffGenerator {
         }
 
         // Backtrack to find differences
-        List<DiffSegment> segments = new ArrayList<>();
-        int i = original.size();
-        int j = revised.size();
+        SegmentBuilder segments = new SegmentBuilder(dictionary, original, revised);
+        int i = original.length;
+        int j = revised.length;
 
         while (i > 0 || j > 0) {
-            if (i > 0 && j > 0 && original.get(i - 1).equals(revised.get(j - 1))) {
-                segments.add(0, new DiffSegment(original.get(i - 1), DiffSegment.Type.UNCHANGED));
+            if (i > 0 && j > 0 && original[i - 1] == revised[j - 1]) {
+                segments.addBackward(DiffSegment.Type.UNCHANGED, i - 1);
                 i--;
                 j--;
             } else if (j > 0 && (i == 0 || dp[i][j - 1] >= dp[i - 1][j])) {
-                segments.add(0, new DiffSegment(revised.get(j - 1), DiffSegment.Type.INSERTED));
+                segments.addBackward(DiffSegment.Type.INSERTED, j - 1);
                 j--;
             } else if (i > 0) {
-                segments.add(0, new DiffSegment(original.get(i - 1), DiffSegment.Type.DELETED));
+                segments.addBackward(DiffSegment.Type.DELETED, i - 1);
                 i--;
             }
         }
 
-        // Merge consecutive segments of the same type
-        return mergeSegments(segments);
-    }
-
-    private static List<DiffSegment> mergeSegments(List<DiffSegment> segments) {
-        if (segments.isEmpty()) return segments;
-
-        List<DiffSegment> merged = new ArrayList<>();
-        StringBuilder currentText = new StringBuilder();
-        DiffSegment.Type currentType = segments.get(0).getType();
-
-        for (DiffSegment segment : segments) {
-            if (segment.getType() == currentType) {
-                currentText.append(segment.getText());
-            } else {
-                if (currentText.length() > 0) {
-                    merged.add(new DiffSegment(currentText.toString(), currentType));
-                }
-                currentText = new StringBuilder(segment.getText());
-                currentType = segment.getType();
-            }
-        }
-
-        if (currentText.length() > 0) {
-            merged.add(new DiffSegment(currentText.toString(), currentType));
-        }
-
-        return merged;
+        segments.reverse();
+        return segments;
     }
 }
@@ -1,122 +1,641 @@
 package com.emlcompare;
 
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
-
+import java.util.zip.Deflater;
+
+// Renders the comparison as a single HTML page. The report is streamed to a buffered UTF-8
+// writer as it is rendered: segment text goes from the diff runs through the escaper straight
+// into the output, so memory use does not grow with the size of the report.
+//
+// Unchanged text more than -Demlcompare.report.contextLines (default 3) lines away from a
+// change is collapsed into a placeholder that expands on click; its text is embedded
+// deflate-compressed and only decoded when expanded. A negative value writes everything, and
+// -Demlcompare.report.embedCollapsed=false leaves the collapsed text out of the report.
 public class InlineHtmlReportGenerator {
 
+    private static final int CONTEXT_LINES = Integer.getInteger("emlcompare.report.contextLines", 3);
+    private static final boolean EMBED_COLLAPSED =
+            Boolean.parseBoolean(System.getProperty("emlcompare.report.embedCollapsed", "true"));
+    // Hiding fewer lines than this is not worth a placeholder
+    private static final int MIN_COLLAPSED_LINES = 4;
+
     public static void generateReport(String outputPath,
                                      InlineDiffGenerator.InlineDiffResult emailBodyDiff,
-                                     List<InlineDiffGenerator.InlineDiffResult> pdfDiffs,
+                                     List<PdfDiffGenerator.PdfDiffResult> pdfDiffs,
                                      String file1Name,
                                      String file2Name) throws IOException {
+        try (Writer html = Files.newBufferedWriter(Paths.get(outputPath), StandardCharsets.UTF_8)) {
+            writeReport(html, emailBodyDiff, pdfDiffs, file1Name, file2Name);
+        }
+    }
+
+    // Report of a comparison whose attachments were matched by content: each attachment
+    // section is titled with its names, and unmatched attachments are listed
+    public static void generateReport(String outputPath,
+                                      EmlComparator.ComparisonResult result,
+                                      String file1Name,
+                                      String file2Name) throws IOException {
+        try (Writer html = Files.newBufferedWriter(Paths.get(outputPath), StandardCharsets.UTF_8)) {
+            writeReport(html, result.getBodyDiff(), result.getPdfDiffs(), result.getPdfLabels(),
+                        result.getRemovedPdfs(), result.getAddedPdfs(), file1Name, file2Name);
+        }
+    }
+
+    // Writes the report to any writer; generateReport wraps it around a UTF-8 file
+    static void writeReport(Writer html,
+                            InlineDiffGenerator.InlineDiffResult emailBodyDiff,
+                            List<PdfDiffGenerator.PdfDiffResult> pdfDiffs,
+                            String file1Name,
+                            String file2Name) throws IOException {
+        writeReport(html, emailBodyDiff, pdfDiffs, List.of(), List.of(), List.of(), file1Name, file2Name);
+    }
 
-        StringBuilder html = new StringBuilder();
-
-        html.append("<!DOCTYPE html>\n");
-        html.append("<html lang=\"en\">\n");
-        html.append("<head>\n");
-        html.append("    <meta charset=\"UTF-8\">\n");
-        html.append("    <meta name=\"viewport\" content=\"width=device-width, initial-scale=1.0\">\n");
-        html.append("    <title>EML Comparison Report</title>\n");
-        html.append("    <style>\n");
-        html.append(getStyles());
-        html.append("    </style>\n");
-        html.append("</head>\n");
-        html.append("<body>\n");
-
-        // Header
-        html.append("    <div class=\"header\">\n");
-        html.append("        <h1>EML Comparison Report</h1>\n");
-        html.append("        <p class=\"timestamp\">Generated: ")
-            .append(LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")))
-            .append("</p>\n");
-        html.append("    </div>\n");
-
-        // File names
-        html.append("    <div class=\"file-info\">\n");
-        html.append("        <div class=\"file-box original\">").append(escapeHtml(file1Name)).append("</div>\n");
-        html.append("        <div class=\"vs\">vs</div>\n");
-        html.append("        <div class=\"file-box revised\">").append(escapeHtml(file2Name)).append("</div>\n");
-        html.append("    </div>\n");
-
-        // Summary
-        html.append("    <div class=\"summary\">\n");
-        html.append("        <h2>Summary</h2>\n");
-        html.append("        <p>Email body has differences: <strong>").append(emailBodyDiff.hasDifferences() ? "Yes" : "No").append("</strong></p>\n");
-        int pdfWithDiffs = (int) pdfDiffs.stream().filter(InlineDiffGenerator.InlineDiffResult::hasDifferences).count();
-        html.append("        <p>PDF attachments compared: <strong>").append(pdfDiffs.size()).append("</strong></p>\n");
-        html.append("        <p>PDFs with differences: <strong>").append(pdfWithDiffs).append("</strong></p>\n");
-        html.append("    </div>\n");
-
-        // Email body diff
-        html.append("    <div class=\"section\">\n");
-        html.append("        <h2>Email Body Comparison</h2>\n");
-        if (emailBodyDiff.hasDifferences()) {
-            html.append("        <div class=\"diff-content\">\n");
-            html.append(generateInlineDiffHtml(emailBodyDiff));
-            html.append("        </div>\n");
-        } else {
-            html.append("        <p class=\"no-diff\">✓ No differences found in email body</p>\n");
-        }
-        html.append("    </div>\n");
-
-        // PDF diffs
-        for (int i = 0; i < pdfDiffs.size(); i++) {
-            html.append("    <div class=\"section\">\n");
-            html.append("        <h2>PDF Attachment Comparison #").append(i + 1).append("</h2>\n");
-            InlineDiffGenerator.InlineDiffResult pdfDiff = pdfDiffs.get(i);
-            if (pdfDiff.hasDifferences()) {
-                html.append("        <div class=\"diff-content\">\n");
-                html.append(generateInlineDiffHtml(pdfDiff));
-                html.append("        </div>\n");
+    static void writeReport(Writer html,
+                            InlineDiffGenerator.InlineDiffResult emailBodyDiff,
+                            List<PdfDiffGenerator.PdfDiffResult> pdfDiffs,
+                            List<String> pdfLabels,
+                            List<String> removedPdfs,
+                            List<String> addedPdfs,
+                            String file1Name,
+                            String file2Name) throws IOException {
+        try (CollapsedText collapsed = new CollapsedText(html)) {
+            html.write("<!DOCTYPE html>\n");
+            html.write("<html lang=\"en\">\n");
+            html.write("<head>\n");
+            html.write("    <meta charset=\"UTF-8\">\n");
+            html.write("    <meta name=\"viewport\" content=\"width=device-width, initial-scale=1.0\">\n");
+            html.write("    <title>EML Comparison Report</title>\n");
+            html.write("    <style>\n");
+            html.write(getStyles());
+            html.write("    </style>\n");
+            html.write("</head>\n");
+            html.write("<body>\n");
+
+            // Header
+            html.write("    <div class=\"header\">\n");
+            html.write("        <h1>EML Comparison Report</h1>\n");
+            html.write("        <p class=\"timestamp\">Generated: ");
+            html.write(LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+            html.write("</p>\n");
+            html.write("    </div>\n");
+
+            // File names
+            html.write("    <div class=\"file-info\">\n");
+            html.write("        <div class=\"file-box original\">");
+            escapeHtml(file1Name, html);
+            html.write("</div>\n");
+            html.write("        <div class=\"vs\">vs</div>\n");
+            html.write("        <div class=\"file-box revised\">");
+            escapeHtml(file2Name, html);
+            html.write("</div>\n");
+            html.write("    </div>\n");
+
+            // Summary
+            html.write("    <div class=\"summary\">\n");
+            html.write("        <h2>Summary</h2>\n");
+            html.write("        <p>Email body has differences: <strong>" + (emailBodyDiff.hasDifferences() ? "Yes" : "No") + "</strong></p>\n");
+            int pdfWithDiffs = (int) pdfDiffs.stream().filter(PdfDiffGenerator.PdfDiffResult::hasDifferences).count();
+            html.write("        <p>PDF attachments compared: <strong>" + pdfDiffs.size() + "</strong></p>\n");
+            html.write("        <p>PDFs with differences: <strong>" + pdfWithDiffs + "</strong></p>\n");
+            if (!removedPdfs.isEmpty() || !addedPdfs.isEmpty()) {
+                html.write("        <p>PDFs removed / added: <strong>" + removedPdfs.size() + " / "
+                           + addedPdfs.size() + "</strong></p>\n");
+            }
+            html.write("    </div>\n");
+
+            // Email body diff
+            html.write("    <div class=\"section\">\n");
+            html.write("        <h2>Email Body Comparison</h2>\n");
+            if (emailBodyDiff.hasDifferences()) {
+                writeApproximationNote(emailBodyDiff, html);
+                html.write("        <div class=\"diff-content\">\n");
+                writeInlineDiffHtml(emailBodyDiff, collapsed);
+                html.write("        </div>\n");
             } else {
-                html.append("        <p class=\"no-diff\">✓ No differences found in PDF attachment</p>\n");
+                html.write("        <p class=\"no-diff\">✓ No differences found in email body</p>\n");
+            }
+            html.write("    </div>\n");
+
+            // PDF diffs
+            for (int i = 0; i < pdfDiffs.size(); i++) {
+                html.write("    <div class=\"section\">\n");
+                html.write("        <h2>PDF Attachment Comparison #" + (i + 1));
+                if (i < pdfLabels.size()) {
+                    html.write(": ");
+                    escapeHtml(pdfLabels.get(i), html);
+                }
+                html.write("</h2>\n");
+                PdfDiffGenerator.PdfDiffResult pdfDiff = pdfDiffs.get(i);
+                if (pdfDiff.hasDifferences()) {
+                    writePdfPagesHtml(pdfDiff, collapsed);
+                } else if (pdfDiff.isIdenticalContent()) {
+                    html.write("        <p class=\"no-diff\">✓ PDF attachments are byte-identical</p>\n");
+                } else {
+                    html.write("        <p class=\"no-diff\">✓ No differences found in PDF attachment</p>\n");
+                }
+                html.write("    </div>\n");
             }
-            html.append("    </div>\n");
+
+            // Attachments the matcher found no counterpart for
+            if (!removedPdfs.isEmpty() || !addedPdfs.isEmpty()) {
+                html.write("    <div class=\"section\">\n");
+                html.write("        <h2>Unmatched PDF Attachments</h2>\n");
+                writeAttachmentList("Only in the original (removed)", "deleted", removedPdfs, html);
+                writeAttachmentList("Only in the revised (added)", "inserted", addedPdfs, html);
+                html.write("    </div>\n");
+            }
+
+            if (collapsed.getChunkCount() > 0) {
+                html.write("    <script>\n");
+                html.write(getExpandScript());
+                html.write("    </script>\n");
+            }
+            html.write("</body>\n");
+            html.write("</html>");
+        }
+    }
+
+    private static void writeAttachmentList(String title, String cssClass, List<String> names, Writer html)
+            throws IOException {
+        if (names.isEmpty()) return;
+        html.write("        <h3>" + title + "</h3>\n");
+        html.write("        <ul class=\"attachments\">\n");
+        for (String name : names) {
+            html.write("            <li><span class=\"" + cssClass + "\">");
+            escapeHtml(name, html);
+            html.write("</span></li>\n");
         }
+        html.write("        </ul>\n");
+    }
 
-        html.append("</body>\n");
-        html.append("</html>");
+    // Changed, added and removed pages each get their own diff block; identical pages are
+    // only counted
+    private static void writePdfPagesHtml(PdfDiffGenerator.PdfDiffResult pdfDiff, CollapsedText collapsed) throws IOException {
+        Writer html = collapsed.html;
+        int unchangedPages = pdfDiff.getPages().size() - pdfDiff.getChangedPageCount();
+        html.write("        <p class=\"page-summary\">Pages with differences: <strong>"
+                + pdfDiff.getChangedPageCount() + "</strong> of " + pdfDiff.getPages().size());
+        if (unchangedPages > 0) {
+            html.write(" (" + unchangedPages + " unchanged page(s) not shown)");
+        }
+        html.write("</p>\n");
+
+        for (PdfDiffGenerator.PageDiff page : pdfDiff.getPages()) {
+            if (!page.hasDifferences()) continue;
+            html.write("        <h3 class=\"page-title\">" + pageTitle(page) + "</h3>\n");
+            writeApproximationNote(page.getDiff(), html);
+            html.write("        <div class=\"diff-content\">\n");
+            writeInlineDiffHtml(page.getDiff(), collapsed);
+            html.write("        </div>\n");
+        }
+    }
 
-        try (FileWriter writer = new FileWriter(outputPath)) {
-            writer.write(html.toString());
+    private static String pageTitle(PdfDiffGenerator.PageDiff page) {
+        if (page.isAdded()) {
+            return "Page " + page.getRevisedPage() + " (added)";
+        }
+        if (page.isRemoved()) {
+            return "Page " + page.getOriginalPage() + " (removed)";
         }
+        if (page.getOriginalPage() != page.getRevisedPage()) {
+            return "Page " + page.getOriginalPage() + " → " + page.getRevisedPage();
+        }
+        return "Page " + page.getOriginalPage();
     }
 
-    private static String generateInlineDiffHtml(InlineDiffGenerator.InlineDiffResult diffResult) {
-        StringBuilder html = new StringBuilder();
+    private static void writeInlineDiffHtml(InlineDiffGenerator.InlineDiffResult diffResult,
+                                            CollapsedText collapsed) throws IOException {
+        Writer html = collapsed.html;
+        EscapingAppendable escaped = new EscapingAppendable(html);
+
+        // Refine replaced phrases in parallel before rendering (no-op when refinement is off)
+        diffResult.refineAll();
+
+        // Read runs by index so token text streams through the escaper one token at a time
+        for (int i = 0; i < diffResult.getSegmentCount(); i++) {
+            InlineDiffGenerator.Refinement refinement = diffResult.getRefinement(i);
+            if (refinement != null) {
+                html.write("<span class=\"deleted\">");
+                writeRefinedParts(refinement.getOriginalParts(), html);
+                html.write("</span><span class=\"inserted\">");
+                writeRefinedParts(refinement.getRevisedParts(), html);
+                html.write("</span>");
+                i++;
+                continue;
+            }
 
-        for (InlineDiffGenerator.DiffSegment segment : diffResult.getSegments()) {
-            String escapedText = escapeHtml(segment.getText());
+            if (CONTEXT_LINES >= 0 && diffResult.getSegmentType(i) == InlineDiffGenerator.DiffSegment.Type.UNCHANGED) {
+                html.write("<span class=\"unchanged\">");
+                collapsed.writeUnchanged(diffResult, i, i > 0, i + 1 < diffResult.getSegmentCount());
+                html.write("</span>");
+                continue;
+            }
 
-            switch (segment.getType()) {
+            switch (diffResult.getSegmentType(i)) {
                 case UNCHANGED:
-                    html.append("<span class=\"unchanged\">").append(escapedText).append("</span>");
+                    html.write("<span class=\"unchanged\">");
                     break;
                 case DELETED:
-                    html.append("<span class=\"deleted\">").append(escapedText).append("</span>");
+                    html.write("<span class=\"deleted\">");
                     break;
                 case INSERTED:
-                    html.append("<span class=\"inserted\">").append(escapedText).append("</span>");
+                    html.write("<span class=\"inserted\">");
                     break;
             }
+            diffResult.appendSegmentText(i, escaped);
+            html.write("</span>");
         }
+    }
 
-        return html.toString();
+    private static void writeRefinedParts(List<InlineDiffGenerator.DiffSegment> parts, Writer html) throws IOException {
+        for (InlineDiffGenerator.DiffSegment part : parts) {
+            if (part.getType() == InlineDiffGenerator.DiffSegment.Type.UNCHANGED) {
+                escapeHtml(part.getText(), html);
+            } else {
+                html.write("<span class=\"changed\">");
+                escapeHtml(part.getText(), html);
+                html.write("</span>");
+            }
+        }
     }
 
-    private static String escapeHtml(String text) {
-        if (text == null) return "";
-        return text.replace("&", "&amp;")
-                   .replace("<", "&lt;")
-                   .replace(">", "&gt;")
-                   .replace("\"", "&quot;")
-                   .replace("'", "&#39;")
-                   .replace("\n", "<br>\n");
+    private static void writeApproximationNote(InlineDiffGenerator.InlineDiffResult diffResult, Writer html) throws IOException {
+        if (!diffResult.isApproximate()) return;
+        html.write("        <p class=\"approximate\">⚠ Approximate comparison: ");
+        escapeHtml(diffResult.getApproximationReason(), html);
+        html.write("</p>\n");
+    }
+
+    // Writes text with HTML special characters escaped and line breaks as <br>, in one pass:
+    // runs of plain characters are copied as they are, only the special ones are replaced
+    private static void escapeHtml(String text, Writer out) throws IOException {
+        if (text == null) return;
+        escapeHtml(text, 0, text.length(), out);
+    }
+
+    private static void escapeHtml(String text, int start, int end, Writer out) throws IOException {
+        int plainStart = start;
+        for (int i = start; i < end; i++) {
+            String replacement;
+            switch (text.charAt(i)) {
+                case '&': replacement = "&amp;"; break;
+                case '<': replacement = "&lt;"; break;
+                case '>': replacement = "&gt;"; break;
+                case '"': replacement = "&quot;"; break;
+                case '\'': replacement = "&#39;"; break;
+                case '\n': replacement = "<br>\n"; break;
+                default: continue;
+            }
+            out.write(text, plainStart, i - plainStart);
+            out.write(replacement);
+            plainStart = i + 1;
+        }
+        out.write(text, plainStart, end - plainStart);
+    }
+
+    // Writes unchanged runs with only CONTEXT_LINES lines kept next to the changes, and numbers
+    // the collapsed chunks of one report. A run is streamed token by token twice, once to
+    // count its line breaks and once to write it, so it is never held in memory as a whole.
+    private static final class CollapsedText implements AutoCloseable {
+        private final Writer html;
+        private int chunkCount;
+        // Created with the first chunk and reused for the others
+        private ChunkWriter chunk;
+
+        CollapsedText(Writer html) {
+            this.html = html;
+        }
+
+        int getChunkCount() { return chunkCount; }
+
+        void writeUnchanged(InlineDiffGenerator.InlineDiffResult diffResult, int index,
+                            boolean changeBefore, boolean changeAfter) throws IOException {
+            LineCounter lines = new LineCounter();
+            diffResult.appendSegmentText(index, lines);
+
+            // The hidden part lies between the hiddenFrom-th and the hiddenTo-th line break. The
+            // line a change ends or starts in is part of it; context is counted from there.
+            int hiddenFrom = changeBefore ? CONTEXT_LINES + 1 : 0;
+            int hiddenTo = changeAfter ? lines.count - CONTEXT_LINES : Integer.MAX_VALUE;
+            boolean endsWithLineBreak = changeAfter || lines.endsWithLineBreak;
+            int hiddenLines = Math.min(hiddenTo, lines.count) - hiddenFrom + (endsWithLineBreak ? 0 : 1);
+            if (hiddenLines < MIN_COLLAPSED_LINES) {
+                diffResult.appendSegmentText(index, new EscapingAppendable(html));
+                return;
+            }
+
+            RunSplitter splitter = new RunSplitter(hiddenFrom, hiddenTo, hiddenLines, endsWithLineBreak ? "<br>\n" : "");
+            diffResult.appendSegmentText(index, splitter);
+            splitter.endHidden();
+        }
+
+        @Override
+        public void close() {
+            if (chunk != null) chunk.close();
+        }
+
+        // Sends each character of a run to the report or to the collapsed chunk, by the
+        // number of line breaks before it
+        private final class RunSplitter implements Appendable {
+            private final int hiddenFrom;
+            private final int hiddenTo;
+            private final int hiddenLines;
+            private final String lineBreak;
+            private int lineBreaks;
+            private boolean inHidden;
+            private boolean hiddenDone;
+
+            RunSplitter(int hiddenFrom, int hiddenTo, int hiddenLines, String lineBreak) {
+                this.hiddenFrom = hiddenFrom;
+                this.hiddenTo = hiddenTo;
+                this.hiddenLines = hiddenLines;
+                this.lineBreak = lineBreak;
+            }
+
+            @Override
+            public Appendable append(CharSequence text) throws IOException {
+                String token = text.toString();
+                int start = 0;
+                for (int i = 0; i < token.length(); i++) {
+                    if (token.charAt(i) == '\n') {
+                        lineBreaks++;
+                        if (lineBreaks == hiddenFrom || lineBreaks == hiddenTo) {
+                            write(token, start, i + 1, lineBreaks - 1);
+                            start = i + 1;
+                        }
+                    }
+                }
+                write(token, start, token.length(), lineBreaks);
+                return this;
+            }
+
+            @Override
+            public Appendable append(CharSequence text, int start, int end) throws IOException {
+                return append(text.subSequence(start, end));
+            }
+
+            @Override
+            public Appendable append(char c) throws IOException {
+                return append(String.valueOf(c));
+            }
+
+            private void write(String token, int start, int end, int lineBreaksBefore) throws IOException {
+                if (start == end) return;
+                if (lineBreaksBefore < hiddenFrom || lineBreaksBefore >= hiddenTo) {
+                    endHidden();
+                    escapeHtml(token, start, end, html);
+                    return;
+                }
+                if (!inHidden) {
+                    startHidden();
+                }
+                if (EMBED_COLLAPSED) {
+                    escapeHtml(token, start, end, chunk);
+                }
+            }
+
+            private void startHidden() throws IOException {
+                inHidden = true;
+                if (EMBED_COLLAPSED) {
+                    int number = chunkCount++;
+                    html.write("<span class=\"collapsed\" data-chunk=\"" + number + "\" title=\"Click to expand\">⋯ "
+                            + hiddenLines + " unchanged lines ⋯" + lineBreak + "</span>");
+                    html.write("<script type=\"application/deflate-base64\" id=\"chunk-" + number + "\">");
+                    if (chunk == null) {
+                        chunk = new ChunkWriter(html);
+                    }
+                    chunk.start();
+                } else {
+                    html.write("<span class=\"collapsed omitted\">⋯ " + hiddenLines
+                            + " unchanged lines not included ⋯" + lineBreak + "</span>");
+                }
+            }
+
+            void endHidden() throws IOException {
+                if (!inHidden || hiddenDone) return;
+                hiddenDone = true;
+                if (EMBED_COLLAPSED) {
+                    chunk.finish();
+                    html.write("</script>");
+                }
+            }
+        }
+    }
+
+    // Counts the line breaks of a run as its tokens stream through
+    private static final class LineCounter implements Appendable {
+        private int count;
+        private boolean endsWithLineBreak;
+
+        @Override
+        public Appendable append(CharSequence text) {
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '\n') count++;
+            }
+            if (text.length() > 0) {
+                endsWithLineBreak = text.charAt(text.length() - 1) == '\n';
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence text, int start, int end) {
+            return append(text.subSequence(start, end));
+        }
+
+        @Override
+        public Appendable append(char c) {
+            return append(String.valueOf(c));
+        }
+    }
+
+    // The escaped text of one collapsed chunk at a time, encoded as UTF-8, deflated (zlib
+    // format) and written base64-encoded to the report as it arrives. The deflater and the
+    // fixed-size buffers serve every chunk of a report.
+    private static final class ChunkWriter extends Writer {
+        private static final char[] BASE64 =
+                "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+        private static final int BUFFER_SIZE = 8192;
+
+        private final Writer html;
+        // Fastest level: the text is repetitive markup, and rendering time matters more here
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final byte[] utf8 = new byte[BUFFER_SIZE];
+        private int utf8Length;
+        // Deflated bytes; up to two are carried over until they complete a base64 group
+        private final byte[] deflated = new byte[BUFFER_SIZE];
+        private int carried;
+        private final char[] encoded = new char[BUFFER_SIZE / 3 * 4 + 4];
+        // A high surrogate waiting for the low surrogate of its pair
+        private char highSurrogate;
+
+        ChunkWriter(Writer html) {
+            this.html = html;
+        }
+
+        void start() {
+            deflater.reset();
+            utf8Length = 0;
+            carried = 0;
+            highSurrogate = 0;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            for (int i = offset; i < offset + length; i++) {
+                put(chars[i]);
+            }
+        }
+
+        @Override
+        public void write(String text, int offset, int length) throws IOException {
+            for (int i = offset; i < offset + length; i++) {
+                put(text.charAt(i));
+            }
+        }
+
+        // Unpaired surrogates become '?', as String.getBytes does
+        private void put(char c) throws IOException {
+            if (utf8Length > utf8.length - 4) {
+                deflateInput();
+            }
+            if (highSurrogate != 0) {
+                char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int codePoint = Character.toCodePoint(high, c);
+                    utf8[utf8Length++] = (byte) (0xF0 | codePoint >> 18);
+                    utf8[utf8Length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                    utf8[utf8Length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                    utf8[utf8Length++] = (byte) (0x80 | codePoint & 0x3F);
+                    return;
+                }
+                utf8[utf8Length++] = '?';
+            }
+            if (c < 0x80) {
+                utf8[utf8Length++] = (byte) c;
+            } else if (c < 0x800) {
+                utf8[utf8Length++] = (byte) (0xC0 | c >> 6);
+                utf8[utf8Length++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                utf8[utf8Length++] = '?';
+            } else {
+                utf8[utf8Length++] = (byte) (0xE0 | c >> 12);
+                utf8[utf8Length++] = (byte) (0x80 | c >> 6 & 0x3F);
+                utf8[utf8Length++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+
+        private void deflateInput() throws IOException {
+            deflater.setInput(utf8, 0, utf8Length);
+            while (!deflater.needsInput()) {
+                encode(deflater.deflate(deflated, carried, deflated.length - carried), false);
+            }
+            utf8Length = 0;
+        }
+
+        // Ends the chunk: deflates what is left and pads the base64 text
+        void finish() throws IOException {
+            if (highSurrogate != 0) {
+                highSurrogate = 0;
+                put('?');
+            }
+            deflater.setInput(utf8, 0, utf8Length);
+            deflater.finish();
+            while (!deflater.finished()) {
+                encode(deflater.deflate(deflated, carried, deflated.length - carried), false);
+            }
+            encode(0, true);
+            utf8Length = 0;
+        }
+
+        // Writes the complete 3-byte groups of the carried and count new bytes as base64, and
+        // with pad also the incomplete last group
+        private void encode(int count, boolean pad) throws IOException {
+            int length = carried + count;
+            int groups = length - length % 3;
+            int chars = 0;
+            for (int i = 0; i < groups; i += 3) {
+                int bits = (deflated[i] & 0xFF) << 16 | (deflated[i + 1] & 0xFF) << 8 | deflated[i + 2] & 0xFF;
+                encoded[chars++] = BASE64[bits >>> 18];
+                encoded[chars++] = BASE64[bits >>> 12 & 0x3F];
+                encoded[chars++] = BASE64[bits >>> 6 & 0x3F];
+                encoded[chars++] = BASE64[bits & 0x3F];
+            }
+            carried = length - groups;
+            if (pad && carried > 0) {
+                int bits = (deflated[groups] & 0xFF) << 16 | (carried == 2 ? (deflated[groups + 1] & 0xFF) << 8 : 0);
+                encoded[chars++] = BASE64[bits >>> 18];
+                encoded[chars++] = BASE64[bits >>> 12 & 0x3F];
+                encoded[chars++] = carried == 2 ? BASE64[bits >>> 6 & 0x3F] : '=';
+                encoded[chars++] = '=';
+                carried = 0;
+            }
+            html.write(encoded, 0, chars);
+            System.arraycopy(deflated, groups, deflated, 0, carried);
+        }
+
+        @Override
+        public void flush() {
+            // Nothing is written to the report before the chunk is finished or a buffer fills
+        }
+
+        @Override
+        public void close() {
+            deflater.end();
+        }
+    }
+
+    // Appendable that escapes everything appended to it, for streaming segment text
+    private static final class EscapingAppendable implements Appendable {
+        private final Writer out;
+
+        EscapingAppendable(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public Appendable append(CharSequence text) throws IOException {
+            escapeHtml(String.valueOf(text), out);
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence text, int start, int end) throws IOException {
+            escapeHtml(String.valueOf(text), start, end, out);
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            escapeHtml(String.valueOf(c), out);
+            return this;
+        }
+    }
+
+    // Expands a collapsed placeholder: decodes and inflates its chunk and puts the text in place
+    private static String getExpandScript() {
+        return """
+        document.addEventListener('click', async (event) => {
+            const placeholder = event.target.closest('.collapsed[data-chunk]');
+            if (!placeholder || placeholder.dataset.loading) return;
+            placeholder.dataset.loading = 'true';
+            const chunk = document.getElementById('chunk-' + placeholder.dataset.chunk);
+            const bytes = Uint8Array.from(atob(chunk.textContent), c => c.charCodeAt(0));
+            const stream = new Blob([bytes]).stream().pipeThrough(new DecompressionStream('deflate'));
+            placeholder.outerHTML = await new Response(stream).text();
+            chunk.remove();
+        });
+        """;
     }
 
     private static String getStyles() {
@@ -238,6 +757,40 @@ public class InlineHtmlReportGenerator {
             font-weight: 500;
         }
 
+        .page-summary {
+            color: #57606a;
+            margin-bottom: 10px;
+        }
+
+        .page-title {
+            color: #24292f;
+            font-size: 1.05em;
+            margin: 20px 0 10px;
+        }
+
+        .diff-content .collapsed {
+            color: #57606a;
+            background-color: #f6f8fa;
+            border: 1px dashed #d0d7de;
+            border-radius: 4px;
+            padding: 0 6px;
+            font-style: italic;
+            cursor: pointer;
+        }
+
+        .diff-content .collapsed.omitted {
+            cursor: default;
+        }
+
+        .approximate {
+            background-color: #fff8c5;
+            border: 1px solid #d4a72c;
+            padding: 10px 15px;
+            border-radius: 6px;
+            color: #7d4e00;
+            margin-bottom: 10px;
+        }
+
         .diff-content {
             background-color: #ffffff;
             border: 1px solid #d0d7de;
@@ -278,6 +831,27 @@ public class InlineHtmlReportGenerator {
             display: inline-block;
         }
 
+        .diff-content .deleted .changed {
+            background-color: #ffc1bc;
+        }
+
+        .diff-content .inserted .changed {
+            background-color: #aceebb;
+        }
+
+        .attachments li {
+            margin: 6px 0;
+        }
+
+        .attachments .deleted {
+            color: #cf222e;
+            text-decoration: line-through;
+        }
+
+        .attachments .inserted {
+            color: #1a7f37;
+        }
+
         @media (max-width: 768px) {
             body {
                 padding: 10px;
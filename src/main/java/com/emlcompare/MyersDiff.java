@@ -0,0 +1,328 @@
+package com.emlcompare;
+
+import java.util.Arrays;
+
+// Linear-space Myers diff (divide and conquer on the middle snake).
+// Uses O(N+M) memory and O((N+M)·D) time, where D is the size of the edit script.
+// Before running Myers, the shared head and tail are trimmed and the middle is split on
+// tokens that occur exactly once on each side (patience anchors), so near-identical
+// inputs only pay for the small windows between anchors.
+final class MyersDiff {
+
+    // Limits for one diff run: a maximum number of edits and a wall-clock deadline.
+    // Non-positive values disable the corresponding limit.
+    static final class Budget {
+        static final Budget UNLIMITED = new Budget(0, 0);
+
+        private final int maxEdits;
+        private final long timeoutMillis;
+        private final long deadlineNanos;
+
+        Budget(int maxEdits, long timeoutMillis) {
+            this.maxEdits = maxEdits;
+            this.timeoutMillis = timeoutMillis;
+            this.deadlineNanos = timeoutMillis > 0 ? System.nanoTime() + timeoutMillis * 1_000_000L : 0;
+        }
+
+        private void check(int edits) {
+            if (maxEdits > 0 && edits > maxEdits) {
+                throw new BudgetExceededException("edit distance exceeds " + maxEdits);
+            }
+            if (deadlineNanos != 0 && System.nanoTime() - deadlineNanos > 0) {
+                throw new BudgetExceededException("time limit of " + timeoutMillis + " ms exceeded");
+            }
+        }
+    }
+
+    static final class BudgetExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        BudgetExceededException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final int[] original;
+    private final int[] revised;
+    private final boolean[] deleted;
+    private final boolean[] inserted;
+    private final Budget budget;
+    // When set, gaps are only trimmed and then replaced wholesale instead of being diffed
+    private final boolean replaceGaps;
+    private int edits;
+
+    private MyersDiff(int[] original, int[] revised, Budget budget, boolean replaceGaps) {
+        this.original = original;
+        this.revised = revised;
+        this.deleted = new boolean[original.length];
+        this.inserted = new boolean[revised.length];
+        this.budget = budget;
+        this.replaceGaps = replaceGaps;
+    }
+
+    // Runs the diff and returns a pair of change masks: result[0][i] is true when
+    // original token i was deleted, result[1][j] is true when revised token j was inserted.
+    static boolean[][] diff(int[] original, int[] revised) {
+        return diff(original, revised, Budget.UNLIMITED);
+    }
+
+    static boolean[][] diff(int[] original, int[] revised, Budget budget) {
+        MyersDiff diff = new MyersDiff(original, revised, budget, false);
+        diff.compareAnchored(0, original.length, 0, revised.length);
+        return new boolean[][] { diff.deleted, diff.inserted };
+    }
+
+    // Same as diff(), but the caller supplies runs already known to be equal: for each k,
+    // original[runA[k] + t] == revised[runB[k] + t] for t < runLength[k]. Runs must be in
+    // increasing order on both sides; only the gaps between them are diffed.
+    static boolean[][] diff(int[] original, int[] revised, int[] runA, int[] runB, int[] runLength, Budget budget) {
+        MyersDiff diff = new MyersDiff(original, revised, budget, false);
+        diff.compareRuns(runA, runB, runLength);
+        return new boolean[][] { diff.deleted, diff.inserted };
+    }
+
+    // Coarse fallback in linear time: keeps the given equal runs, trims the common head and
+    // tail of every gap between them and marks the rest of the gap as a replacement.
+    static boolean[][] replace(int[] original, int[] revised, int[] runA, int[] runB, int[] runLength) {
+        MyersDiff diff = new MyersDiff(original, revised, Budget.UNLIMITED, true);
+        diff.compareRuns(runA, runB, runLength);
+        return new boolean[][] { diff.deleted, diff.inserted };
+    }
+
+    private void compareRuns(int[] runA, int[] runB, int[] runLength) {
+        int prevA = 0;
+        int prevB = 0;
+        for (int k = 0; k < runA.length; k++) {
+            compareAnchored(prevA, runA[k], prevB, runB[k]);
+            prevA = runA[k] + runLength[k];
+            prevB = runB[k] + runLength[k];
+        }
+        compareAnchored(prevA, original.length, prevB, revised.length);
+    }
+
+    private void compareAnchored(int aLo, int aHi, int bLo, int bHi) {
+        // Strip common prefix and suffix
+        while (aLo < aHi && bLo < bHi && original[aLo] == revised[bLo]) {
+            aLo++;
+            bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && original[aHi - 1] == revised[bHi - 1]) {
+            aHi--;
+            bHi--;
+        }
+
+        if (replaceGaps) {
+            markDeleted(aLo, aHi);
+            markInserted(bLo, bHi);
+            return;
+        }
+
+        int[][] anchors = uniqueAnchors(aLo, aHi, bLo, bHi);
+        int[] anchorA = anchors[0];
+        int[] anchorB = anchors[1];
+
+        // Diff only the windows between consecutive anchors
+        int prevA = aLo;
+        int prevB = bLo;
+        for (int k = 0; k < anchorA.length; k++) {
+            compare(prevA, anchorA[k], prevB, anchorB[k]);
+            prevA = anchorA[k] + 1;
+            prevB = anchorB[k] + 1;
+        }
+        compare(prevA, aHi, prevB, bHi);
+    }
+
+    // Finds tokens that occur exactly once in each window and keeps the longest run of
+    // them that appears in the same order on both sides (patience sorting).
+    private int[][] uniqueAnchors(int aLo, int aHi, int bLo, int bHi) {
+        if (aLo == aHi || bLo == bHi) {
+            return new int[][] { new int[0], new int[0] };
+        }
+
+        int idLimit = 0;
+        for (int i = aLo; i < aHi; i++) idLimit = Math.max(idLimit, original[i] + 1);
+        for (int j = bLo; j < bHi; j++) idLimit = Math.max(idLimit, revised[j] + 1);
+
+        // Occurrence count per token ID; the last seen position is enough for unique tokens
+        int[] countA = new int[idLimit];
+        int[] countB = new int[idLimit];
+        int[] positionB = new int[idLimit];
+        for (int i = aLo; i < aHi; i++) countA[original[i]]++;
+        for (int j = bLo; j < bHi; j++) {
+            countB[revised[j]]++;
+            positionB[revised[j]] = j;
+        }
+
+        // Candidate pairs in original order
+        int[] candA = new int[aHi - aLo];
+        int[] candB = new int[aHi - aLo];
+        int candidates = 0;
+        for (int i = aLo; i < aHi; i++) {
+            int id = original[i];
+            if (countA[id] == 1 && countB[id] == 1) {
+                candA[candidates] = i;
+                candB[candidates] = positionB[id];
+                candidates++;
+            }
+        }
+
+        // Longest increasing subsequence of revised positions
+        int[] tails = new int[candidates];
+        int[] previous = new int[candidates];
+        int length = 0;
+        for (int c = 0; c < candidates; c++) {
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (candB[tails[mid]] < candB[c]) lo = mid + 1;
+                else hi = mid;
+            }
+            previous[c] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = c;
+            if (lo == length) length++;
+        }
+
+        int[] anchorA = new int[length];
+        int[] anchorB = new int[length];
+        for (int k = length - 1, c = length > 0 ? tails[length - 1] : -1; k >= 0; k--, c = previous[c]) {
+            anchorA[k] = candA[c];
+            anchorB[k] = candB[c];
+        }
+        return new int[][] { anchorA, anchorB };
+    }
+
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        // Strip common prefix and suffix
+        while (aLo < aHi && bLo < bHi && original[aLo] == revised[bLo]) {
+            aLo++;
+            bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && original[aHi - 1] == revised[bHi - 1]) {
+            aHi--;
+            bHi--;
+        }
+
+        if (aLo == aHi) {
+            markInserted(bLo, bHi);
+            return;
+        }
+        if (bLo == bHi) {
+            markDeleted(aLo, aHi);
+            return;
+        }
+
+        int[] split = middleSnake(aLo, aHi, bLo, bHi);
+        if (split == null) {
+            // No common token at all: the whole window is a replacement
+            markDeleted(aLo, aHi);
+            markInserted(bLo, bHi);
+            return;
+        }
+
+        compare(aLo, split[0], bLo, split[1]);
+        compare(split[0], aHi, split[1], bHi);
+    }
+
+    // Walks the forward and reverse D-paths simultaneously until they overlap and
+    // returns the split point {x, y} in absolute coordinates.
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD + 1;
+        int length = 2 * maxD + 3;
+        int[] v1 = new int[length];
+        int[] v2 = new int[length];
+        Arrays.fill(v1, -1);
+        Arrays.fill(v2, -1);
+        v1[offset + 1] = 0;
+        v2[offset + 1] = 0;
+
+        int delta = n - m;
+        // When the length difference is odd the forward path is the one that detects the overlap
+        boolean front = (delta % 2 != 0);
+        int k1start = 0, k1end = 0, k2start = 0, k2end = 0;
+
+        for (int d = 0; d < maxD; d++) {
+            // Both paths walked d steps without meeting, so this window needs about 2d more edits
+            budget.check(edits + 2 * d);
+
+            // Forward path
+            for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2) {
+                int k1Offset = offset + k1;
+                int x1;
+                if (k1 == -d || (k1 != d && v1[k1Offset - 1] < v1[k1Offset + 1])) {
+                    x1 = v1[k1Offset + 1];
+                } else {
+                    x1 = v1[k1Offset - 1] + 1;
+                }
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && original[aLo + x1] == revised[bLo + y1]) {
+                    x1++;
+                    y1++;
+                }
+                v1[k1Offset] = x1;
+                if (x1 > n) {
+                    k1end += 2;
+                } else if (y1 > m) {
+                    k1start += 2;
+                } else if (front) {
+                    int k2Offset = offset + delta - k1;
+                    if (k2Offset >= 0 && k2Offset < length && v2[k2Offset] != -1) {
+                        int x2 = n - v2[k2Offset];
+                        if (x1 >= x2) {
+                            return new int[] { aLo + x1, bLo + y1 };
+                        }
+                    }
+                }
+            }
+
+            // Reverse path
+            for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2) {
+                int k2Offset = offset + k2;
+                int x2;
+                if (k2 == -d || (k2 != d && v2[k2Offset - 1] < v2[k2Offset + 1])) {
+                    x2 = v2[k2Offset + 1];
+                } else {
+                    x2 = v2[k2Offset - 1] + 1;
+                }
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m
+                       && original[aHi - x2 - 1] == revised[bHi - y2 - 1]) {
+                    x2++;
+                    y2++;
+                }
+                v2[k2Offset] = x2;
+                if (x2 > n) {
+                    k2end += 2;
+                } else if (y2 > m) {
+                    k2start += 2;
+                } else if (!front) {
+                    int k1Offset = offset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < length && v1[k1Offset] != -1) {
+                        int x1 = v1[k1Offset];
+                        int y1 = offset + x1 - k1Offset;
+                        if (x1 >= n - x2) {
+                            return new int[] { aLo + x1, bLo + y1 };
+                        }
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private void markDeleted(int lo, int hi) {
+        for (int i = lo; i < hi; i++) deleted[i] = true;
+        edits += hi - lo;
+        budget.check(edits);
+    }
+
+    private void markInserted(int lo, int hi) {
+        for (int j = lo; j < hi; j++) inserted[j] = true;
+        edits += hi - lo;
+        budget.check(edits);
+    }
+}
@@ -0,0 +1,124 @@
+package com.emlcompare;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Page-aware comparison of two extracted PDFs. Each page is hashed, the two page sequences
+// are aligned on those hashes (so inserted or removed pages do not shift everything after
+// them), and the phrase diff only runs on pages whose content actually changed.
+public class PdfDiffGenerator {
+
+    // One aligned page: a page present on both sides, or a page that was removed or added
+    public static class PageDiff {
+        private final int originalPage;
+        private final int revisedPage;
+        private final InlineDiffGenerator.InlineDiffResult diff;
+
+        public PageDiff(int originalPage, int revisedPage, InlineDiffGenerator.InlineDiffResult diff) {
+            this.originalPage = originalPage;
+            this.revisedPage = revisedPage;
+            this.diff = diff;
+        }
+
+        // 1-based page numbers; 0 when the page does not exist on that side
+        public int getOriginalPage() { return originalPage; }
+        public int getRevisedPage() { return revisedPage; }
+
+        // Phrase diff of the page, or null for pages with identical content
+        public InlineDiffGenerator.InlineDiffResult getDiff() { return diff; }
+
+        public boolean hasDifferences() { return diff != null && diff.hasDifferences(); }
+        public boolean isRemoved() { return revisedPage == 0; }
+        public boolean isAdded() { return originalPage == 0; }
+    }
+
+    public static class PdfDiffResult {
+        private final List<PageDiff> pages;
+        private final boolean identicalContent;
+
+        public PdfDiffResult(List<PageDiff> pages) {
+            this(pages, false);
+        }
+
+        private PdfDiffResult(List<PageDiff> pages, boolean identicalContent) {
+            this.pages = pages;
+            this.identicalContent = identicalContent;
+        }
+
+        // Result for two attachments whose content hashes match. Nothing was extracted or
+        // diffed, so there are no pages.
+        static PdfDiffResult identicalContent() {
+            return new PdfDiffResult(new ArrayList<>(), true);
+        }
+
+        public List<PageDiff> getPages() { return pages; }
+
+        public boolean hasDifferences() {
+            return pages.stream().anyMatch(PageDiff::hasDifferences);
+        }
+
+        public int getChangedPageCount() {
+            return (int) pages.stream().filter(PageDiff::hasDifferences).count();
+        }
+
+        // True when the attachments were found identical by content hash, without a diff
+        public boolean isIdenticalContent() { return identicalContent; }
+    }
+
+    public static PdfDiffResult generatePdfDiff(PdfExtractor.PdfText original, PdfExtractor.PdfText revised) {
+        return generatePdfDiff(original, revised, new InlineDiffGenerator.DiffOptions());
+    }
+
+    public static PdfDiffResult generatePdfDiff(PdfExtractor.PdfText original, PdfExtractor.PdfText revised,
+                                                InlineDiffGenerator.DiffOptions options) {
+        // Pages with the same normalized-text digest cannot show a difference, so the digest
+        // is the page's identity for the alignment
+        TokenDictionary pageHashes = new TokenDictionary();
+        int[] originalPages = hashPages(original, pageHashes);
+        int[] revisedPages = hashPages(revised, pageHashes);
+        boolean[][] changes = MyersDiff.diff(originalPages, revisedPages);
+        boolean[] removed = changes[0];
+        boolean[] added = changes[1];
+
+        List<PageDiff> pages = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < originalPages.length || j < revisedPages.length) {
+            if (i < originalPages.length && j < revisedPages.length && !removed[i] && !added[j]) {
+                pages.add(new PageDiff(i + 1, j + 1, null));
+                i++;
+                j++;
+                continue;
+            }
+
+            // A run of changed pages between two identical ones: pair them up in order and
+            // diff each pair, then report what is left over as removed or added pages
+            int removedEnd = i;
+            while (removedEnd < originalPages.length && removed[removedEnd]) removedEnd++;
+            int addedEnd = j;
+            while (addedEnd < revisedPages.length && added[addedEnd]) addedEnd++;
+
+            for (; i < removedEnd && j < addedEnd; i++, j++) {
+                pages.add(new PageDiff(i + 1, j + 1, InlineDiffGenerator.generateInlineDiff(
+                        original.getPageText(i), revised.getPageText(j), options)));
+            }
+            for (; i < removedEnd; i++) {
+                pages.add(new PageDiff(i + 1, 0, InlineDiffGenerator.generateInlineDiff(
+                        original.getPageText(i), "", options)));
+            }
+            for (; j < addedEnd; j++) {
+                pages.add(new PageDiff(0, j + 1, InlineDiffGenerator.generateInlineDiff(
+                        "", revised.getPageText(j), options)));
+            }
+        }
+        return new PdfDiffResult(pages);
+    }
+
+    private static int[] hashPages(PdfExtractor.PdfText text, TokenDictionary pageHashes) {
+        int[] ids = new int[text.getPageCount()];
+        for (int page = 0; page < ids.length; page++) {
+            ids[page] = pageHashes.intern(ContentDigest.normalizedTextSha256(text.getPageText(page)));
+        }
+        return ids;
+    }
+}
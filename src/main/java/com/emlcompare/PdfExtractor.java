@@ -1,20 +1,252 @@
 package com.emlcompare;
 
 import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.text.PDFTextStripper;
-import java.io.ByteArrayInputStream;
+import org.apache.pdfbox.util.Version;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class PdfExtractor {
 
+    // Bump when the extraction output changes, so cached text from older versions is not reused
+    private static final int EXTRACTOR_VERSION = 2;
+
+    // Documents with at least this many pages are split into page ranges extracted in
+    // parallel; a value <= 0 always extracts on the calling thread
+    private static final int PARALLEL_MIN_PAGES = Integer.getInteger("emlcompare.pdf.parallelMinPages", 8);
+    // Each range loads its own PDDocument, so ranges are kept large enough to amortize that
+    private static final int MIN_PAGES_PER_RANGE = 4;
+
+    // How attachments are handed to PDFBox. AUTO keeps small ones in memory and spools
+    // anything from FILE_BACKED_BYTES up to a temp file; MEMORY and FILE force one mode.
+    public enum LoadMode { AUTO, MEMORY, FILE }
+
+    private static final LoadMode LOAD_MODE = LoadMode.valueOf(
+            System.getProperty("emlcompare.pdf.loadMode", "auto").toUpperCase(Locale.ROOT));
+    // Clamped to 0..1024 MB: the part below it is buffered in one byte array, and larger
+    // values would overflow the int size
+    private static final int FILE_BACKED_BYTES =
+            Math.min(Math.max(Integer.getInteger("emlcompare.pdf.fileBackedMB", 16), 0), 1024) * 1024 * 1024;
+    // Heap PDFBox may use for decoded streams while extracting one file-backed document,
+    // split evenly between its page ranges; anything beyond it goes to a scratch file
+    private static final long SCRATCH_MEMORY_BYTES =
+            Math.max(Long.getLong("emlcompare.pdf.scratchMemoryMB", 32L), 0L) * 1024 * 1024;
+
+    // Loads one copy of the document; scratchBytes is its share of SCRATCH_MEMORY_BYTES
+    private interface DocumentLoader {
+        PDDocument load(long scratchBytes) throws IOException;
+    }
+
+    // Extracted text plus the offset at which each page starts in it
+    public static class PdfText {
+        private final String text;
+        private final int[] pageStarts;
+
+        public PdfText(String text, int[] pageStarts) {
+            this.text = text;
+            this.pageStarts = pageStarts;
+        }
+
+        public String getText() { return text; }
+        public int getPageCount() { return pageStarts.length; }
+
+        // Offset of the first character of page (0-based) in getText()
+        public int getPageStart(int page) { return pageStarts[page]; }
+
+        public int getPageEnd(int page) {
+            return page + 1 < pageStarts.length ? pageStarts[page + 1] : text.length();
+        }
+
+        public String getPageText(int page) {
+            return text.substring(getPageStart(page), getPageEnd(page));
+        }
+    }
+
     public static String extractText(byte[] pdfData) throws IOException {
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(pdfData);
-             PDDocument document = Loader.loadPDF(pdfData)) {
+        return extractPages(pdfData).getText();
+    }
+
+    // Reads the PDF from a stream, e.g. an attachment decoded straight from the message file
+    public static String extractText(InputStream pdfStream) throws IOException {
+        return extractPages(pdfStream).getText();
+    }
+
+    public static PdfText extractPages(InputStream pdfStream) throws IOException {
+        return extractPages(pdfStream, ForkJoinPool.commonPool());
+    }
+
+    // Page ranges of large documents run on pages when it is a fork-join pool; any other
+    // executor, such as a batch stage's direct executor, extracts on the calling thread
+    public static PdfText extractPages(InputStream pdfStream, Executor pages) throws IOException {
+        if (LOAD_MODE == LoadMode.MEMORY) {
+            return extractPages(pdfStream.readAllBytes(), pages);
+        }
+
+        // Buffer up to the threshold; only attachments that do not fit are spooled to disk
+        byte[] head = LOAD_MODE == LoadMode.AUTO ? pdfStream.readNBytes(FILE_BACKED_BYTES) : new byte[0];
+        if (LOAD_MODE == LoadMode.AUTO && head.length < FILE_BACKED_BYTES) {
+            return extractPages(head, pages);
+        }
+
+        Path spool = Files.createTempFile("emlcompare-", ".pdf");
+        try {
+            try (OutputStream out = Files.newOutputStream(spool)) {
+                out.write(head);
+                pdfStream.transferTo(out);
+            }
+            head = null; // let the buffered part be collected while PDFBox reads the file
+            return extractPages(spool.toFile(), pages);
+        } finally {
+            Files.deleteIfExists(spool);
+        }
+    }
+
+    public static PdfText extractPages(byte[] pdfData) throws IOException {
+        return extractPages(pdfData, ForkJoinPool.commonPool());
+    }
 
-            PDFTextStripper stripper = new PDFTextStripper();
-            return stripper.getText(document);
+    private static PdfText extractPages(byte[] pdfData, Executor pages) throws IOException {
+        return extractPages(scratchBytes -> Loader.loadPDF(pdfData), pages);
+    }
+
+    public static PdfText extractPages(File pdfFile) throws IOException {
+        return extractPages(pdfFile, ForkJoinPool.commonPool());
+    }
+
+    // Reads the document through RandomAccessReadBufferedFile, so only the pages being
+    // processed and PDFBox's bounded scratch memory are on the heap
+    private static PdfText extractPages(File pdfFile, Executor pages) throws IOException {
+        return extractPages(scratchBytes -> Loader.loadPDF(pdfFile, MemoryUsageSetting.setupMixed(scratchBytes).streamCache),
+                            pages);
+    }
+
+    // Extracts the text page by page. Large documents are split into page ranges that run
+    // on the pages pool, each with its own PDDocument over the same bytes or file (PDDocument
+    // is not thread-safe). The ranges are joined in page order, so the text is the same as a
+    // single PDFTextStripper pass over the whole document. The ranges load at the same time,
+    // so each gets its share of the scratch memory and the document stays within the budget.
+    private static PdfText extractPages(DocumentLoader loader, Executor pages) throws IOException {
+        int pageCount;
+        try (PDDocument document = loader.load(SCRATCH_MEMORY_BYTES)) {
+            pageCount = document.getNumberOfPages();
+            if (rangeCount(pageCount, pages) < 2) {
+                return extractRange(document, 1, pageCount);
+            }
+        }
+
+        int ranges = rangeCount(pageCount, pages);
+        long scratchBytes = SCRATCH_MEMORY_BYTES / ranges;
+        List<Callable<PdfText>> tasks = new ArrayList<>();
+        for (int range = 0; range < ranges; range++) {
+            int firstPage = range * pageCount / ranges + 1;
+            int lastPage = (range + 1) * pageCount / ranges;
+            tasks.add(() -> {
+                try (PDDocument document = loader.load(scratchBytes)) {
+                    return extractRange(document, firstPage, lastPage);
+                }
+            });
+        }
+
+        PdfText[] parts = new PdfText[ranges];
+        try {
+            // A worker of the same pool helps run the ranges while it waits for them
+            List<Future<PdfText>> done = ((ForkJoinPool) pages).invokeAll(tasks);
+            for (int range = 0; range < ranges; range++) {
+                parts[range] = done.get(range).get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while extracting page ranges");
+        }
+        return join(parts, pageCount);
+    }
+
+    // Only a fork-join pool gets more than one range: its workers can wait for the ranges
+    // without blocking the pool, and its parallelism bounds them. A fixed or direct executor
+    // (batch stages already run one pair per core) extracts in a single pass.
+    private static int rangeCount(int pageCount, Executor pages) {
+        if (PARALLEL_MIN_PAGES <= 0 || pageCount < PARALLEL_MIN_PAGES || !(pages instanceof ForkJoinPool)) {
+            return 1;
+        }
+        return Math.min(((ForkJoinPool) pages).getParallelism(), pageCount / MIN_PAGES_PER_RANGE);
+    }
+
+    private static PdfText extractRange(PDDocument document, int firstPage, int lastPage) throws IOException {
+        PageOffsetStripper stripper = new PageOffsetStripper(firstPage, lastPage);
+        StringWriter out = new StringWriter();
+        stripper.writeText(document, out);
+        return new PdfText(out.toString(), stripper.finish(out.getBuffer().length()));
+    }
+
+    private static PdfText join(PdfText[] parts, int pageCount) {
+        StringBuilder text = new StringBuilder();
+        int[] pageStarts = new int[pageCount];
+        int page = 0;
+        for (PdfText part : parts) {
+            for (int i = 0; i < part.getPageCount(); i++) {
+                pageStarts[page++] = text.length() + part.getPageStart(i);
+            }
+            text.append(part.getText());
+        }
+        return new PdfText(text.toString(), Arrays.copyOf(pageStarts, page));
+    }
+
+    // Records where each page starts in the output. Pages without a content stream never
+    // reach startPage, so they get the offset of the page that follows them.
+    private static final class PageOffsetStripper extends PDFTextStripper {
+        private final int[] pageStarts;
+        private int pages;
+
+        PageOffsetStripper(int firstPage, int lastPage) throws IOException {
+            setStartPage(firstPage);
+            setEndPage(lastPage);
+            this.pageStarts = new int[Math.max(lastPage - firstPage + 1, 0)];
         }
+
+        @Override
+        protected void startPage(PDPage page) throws IOException {
+            fillTo(getCurrentPageNo() - getStartPage() + 1, ((StringWriter) output).getBuffer().length());
+        }
+
+        // Called after writeText with the final output length, for trailing blank pages
+        int[] finish(int length) {
+            fillTo(pageStarts.length, length);
+            return pageStarts;
+        }
+
+        // Sets the start of every page up to (excluding) count to length
+        private void fillTo(int count, int length) {
+            while (pages < count) {
+                pageStarts[pages++] = length;
+            }
+        }
+    }
+
+    // Identifies everything that influences the extracted text, for the PDF text cache key
+    static String settingsFingerprint() {
+        return "extractor=" + EXTRACTOR_VERSION + ";pdfbox=" + Version.getVersion();
     }
 
     public static String extractTextWithLineNumbers(byte[] pdfData) throws IOException {
@@ -0,0 +1,263 @@
+package com.emlcompare;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// On-disk cache of extracted PDF text, addressed by the SHA-256 of the attachment plus the
+// extractor settings, so a reference PDF seen in an earlier run is a file read instead of a
+// PDFBox parse. Entries are written to a temp file and renamed into place, which keeps the
+// directory consistent when several workers or JVMs share it. The modification time of an
+// entry is bumped on every hit and the least recently used entries are deleted once the
+// directory grows past its size limit.
+//
+// An entry is a "pages:" line with the page start offsets, followed by the text.
+//
+// Disabled unless -Demlcompare.pdf.cacheDir is set; -Demlcompare.pdf.cacheMaxMB bounds it.
+final class PdfTextCache {
+
+    interface Extraction {
+        PdfExtractor.PdfText extract() throws IOException;
+    }
+
+    private static final long DEFAULT_MAX_BYTES = Long.getLong("emlcompare.pdf.cacheMaxMB", 512L) * 1024 * 1024;
+    // Eviction trims the cache to this fraction of the limit so it does not run on every write
+    private static final double EVICT_TO = 0.9;
+
+    private static final PdfTextCache DEFAULT = create(System.getProperty("emlcompare.pdf.cacheDir"), DEFAULT_MAX_BYTES);
+
+    private final Path directory;
+    private final long maxBytes;
+    private final AtomicLong approximateBytes = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    // Extractions running in this JVM, so parallel workers asking for the same PDF share one parse
+    private final ConcurrentHashMap<String, CompletableFuture<PdfExtractor.PdfText>> inFlight = new ConcurrentHashMap<>();
+
+    private PdfTextCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    static PdfTextCache getDefault() {
+        return DEFAULT;
+    }
+
+    // A cache over the given directory, or a pass-through cache when directory is null/empty
+    static PdfTextCache create(String directory, long maxBytes) {
+        if (directory == null || directory.isBlank()) {
+            return new PdfTextCache(null, maxBytes);
+        }
+        PdfTextCache cache = new PdfTextCache(Paths.get(directory), maxBytes);
+        try {
+            Files.createDirectories(cache.directory);
+            cache.approximateBytes.set(cache.totalSize());
+        } catch (IOException e) {
+            System.err.println("Warning: PDF text cache disabled, cannot use " + directory + ": " + e.getMessage());
+            return new PdfTextCache(null, maxBytes);
+        }
+        return cache;
+    }
+
+    // Returns the cached text for this content digest, or runs the extraction and stores it
+    PdfExtractor.PdfText getOrExtract(String contentSha256, Extraction extraction) throws IOException {
+        if (directory == null) {
+            return extraction.extract();
+        }
+
+        String key = ContentDigest.sha256((contentSha256 + "|" + PdfExtractor.settingsFingerprint())
+                                                  .getBytes(StandardCharsets.UTF_8));
+        Path entry = directory.resolve(key.substring(0, 2)).resolve(key + ".txt");
+
+        PdfExtractor.PdfText cached = read(entry);
+        if (cached != null) {
+            return cached;
+        }
+
+        CompletableFuture<PdfExtractor.PdfText> mine = new CompletableFuture<>();
+        CompletableFuture<PdfExtractor.PdfText> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw e;
+            }
+        }
+
+        try {
+            PdfExtractor.PdfText text = extraction.extract();
+            write(entry, text);
+            mine.complete(text);
+            return text;
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private PdfExtractor.PdfText read(Path entry) throws IOException {
+        String content;
+        try {
+            content = Files.readString(entry, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            // Evicted right after the read; the text is still valid
+        }
+        return decode(content);
+    }
+
+    private static String encode(PdfExtractor.PdfText text) {
+        StringBuilder content = new StringBuilder("pages:");
+        for (int page = 0; page < text.getPageCount(); page++) {
+            if (page > 0) content.append(',');
+            content.append(text.getPageStart(page));
+        }
+        return content.append('\n').append(text.getText()).toString();
+    }
+
+    // Returns null for an entry that is not in the expected format, so it is re-extracted
+    private static PdfExtractor.PdfText decode(String content) {
+        int newline = content.indexOf('\n');
+        if (!content.startsWith("pages:") || newline < 0) {
+            return null;
+        }
+        String offsets = content.substring("pages:".length(), newline);
+        String[] values = offsets.isEmpty() ? new String[0] : offsets.split(",");
+        int[] pageStarts = new int[values.length];
+        try {
+            for (int i = 0; i < values.length; i++) {
+                pageStarts[i] = Integer.parseInt(values[i]);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return new PdfExtractor.PdfText(content.substring(newline + 1), pageStarts);
+    }
+
+    private void write(Path entry, PdfExtractor.PdfText text) {
+        try {
+            Files.createDirectories(entry.getParent());
+            Path temp = Files.createTempFile(entry.getParent(), entry.getFileName().toString(), ".tmp");
+            long size;
+            try {
+                Files.writeString(temp, encode(text), StandardCharsets.UTF_8);
+                // An entry corrupt on read or written by another process is replaced, so only
+                // the difference counts towards the cache size
+                size = Files.size(temp) - sizeOf(entry);
+                try {
+                    Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            if (approximateBytes.addAndGet(size) > maxBytes) {
+                evict();
+            }
+        } catch (IOException e) {
+            // A cache that cannot be written only costs the next run a re-extraction
+            System.err.println("Warning: cannot write PDF text cache entry " + entry + ": " + e.getMessage());
+        }
+    }
+
+    private static long sizeOf(Path entry) throws IOException {
+        try {
+            return Files.size(entry);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    // Deletes least recently used entries until the cache is below EVICT_TO of its limit.
+    // Only one thread evicts at a time; the others keep working against the slightly
+    // oversized cache.
+    private void evict() throws IOException {
+        if (!evictionLock.tryLock()) return;
+        try {
+            List<CacheEntry> entries = new ArrayList<>();
+            long total = 0;
+            for (Path path : listEntries()) {
+                try {
+                    CacheEntry entry = new CacheEntry(path, Files.getLastModifiedTime(path), Files.size(path));
+                    entries.add(entry);
+                    total += entry.size;
+                } catch (NoSuchFileException e) {
+                    // Removed by another process
+                }
+            }
+            entries.sort(Comparator.comparing(entry -> entry.lastUsed));
+
+            long target = (long) (maxBytes * EVICT_TO);
+            for (int i = 0; i < entries.size() && total > target; i++) {
+                Files.deleteIfExists(entries.get(i).path);
+                total -= entries.get(i).size;
+            }
+            approximateBytes.set(total);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static final class CacheEntry {
+        final Path path;
+        final FileTime lastUsed;
+        final long size;
+
+        CacheEntry(Path path, FileTime lastUsed, long size) {
+            this.path = path;
+            this.lastUsed = lastUsed;
+            this.size = size;
+        }
+    }
+
+    private long totalSize() throws IOException {
+        long total = 0;
+        for (Path entry : listEntries()) {
+            try {
+                total += Files.size(entry);
+            } catch (NoSuchFileException e) {
+                // Removed by another process
+            }
+        }
+        return total;
+    }
+
+    private List<Path> listEntries() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path shard : shards) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(shard, "*.txt")) {
+                    files.forEach(entries::add);
+                } catch (NoSuchFileException e) {
+                    // Shard removed concurrently
+                } catch (DirectoryIteratorException e) {
+                    throw e.getCause();
+                }
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,179 @@
+package com.emlcompare;
+
+import java.util.Arrays;
+
+// Single-pass scanner producing the same phrase tokens as the original regex tokenizer:
+// lines split on \r?\n, sentences split after . ! ? ; , followed by whitespace, and
+// sentences longer than 15 words cut into 12-word chunks. Tokens are interned straight from
+// offsets into the source text, so no per-line arrays or substrings are created.
+final class PhraseTokenizer {
+
+    private static final int MAX_PHRASE_WORDS = 15;
+    private static final int CHUNK_WORDS = 12;
+
+    static final class Tokens {
+        // Interned phrase IDs, with " " and "\n" separator tokens
+        final int[] ids;
+        // lineStarts[i] is the index of the first token of line i; lineStarts[lineCount] is ids.length
+        final int[] lineStarts;
+        // Interned trimmed text of each line, or null when no line dictionary was given
+        final int[] lineIds;
+        final int lineCount;
+
+        private Tokens(int[] ids, int[] lineStarts, int[] lineIds, int lineCount) {
+            this.ids = ids;
+            this.lineStarts = lineStarts;
+            this.lineIds = lineIds;
+            this.lineCount = lineCount;
+        }
+    }
+
+    private final String text;
+    private final TokenDictionary phrases;
+    private final int space;
+    private final int newline;
+
+    private int[] ids = new int[64];
+    private int count;
+
+    private PhraseTokenizer(String text, TokenDictionary phrases) {
+        this.text = text;
+        this.phrases = phrases;
+        this.space = phrases.intern(" ");
+        this.newline = phrases.intern("\n");
+    }
+
+    static Tokens tokenize(String text, TokenDictionary phrases, TokenDictionary lines) {
+        return new PhraseTokenizer(text, phrases).scan(lines);
+    }
+
+    private Tokens scan(TokenDictionary lines) {
+        int length = text.length();
+
+        // Line boundaries as String.split("\r?\n") sees them: trailing empty lines are dropped,
+        // except that text without any line break is always one line
+        int lineCount = 1;
+        int lastNonEmptyLine = -1;
+        int lineStart = 0;
+        for (int k = 0; k < length; k++) {
+            if (text.charAt(k) == '\n') {
+                if (lineEnd(lineStart, k) > lineStart) lastNonEmptyLine = lineCount - 1;
+                lineCount++;
+                lineStart = k + 1;
+            }
+        }
+        if (length > lineStart) lastNonEmptyLine = lineCount - 1;
+        if (lineCount > 1) lineCount = lastNonEmptyLine + 1;
+
+        int[] lineStarts = new int[lineCount + 1];
+        int[] lineIds = lines != null ? new int[lineCount] : null;
+        lineStart = 0;
+        for (int i = 0; i < lineCount; i++) {
+            int newlineAt = indexOfNewline(lineStart);
+            int start = lineStart;
+            int end = lineEnd(lineStart, newlineAt);
+
+            // String.trim() semantics
+            while (start < end && text.charAt(start) <= ' ') start++;
+            while (end > start && text.charAt(end - 1) <= ' ') end--;
+
+            lineStarts[i] = count;
+            if (lineIds != null) lineIds[i] = lines.intern(text, start, end, false);
+            if (start < end) scanLine(start, end);
+            if (i < lineCount - 1) add(newline);
+
+            lineStart = newlineAt + 1;
+        }
+        lineStarts[lineCount] = count;
+
+        return new Tokens(Arrays.copyOf(ids, count), lineStarts, lineIds, lineCount);
+    }
+
+    private int indexOfNewline(int from) {
+        int index = text.indexOf('\n', from);
+        return index < 0 ? text.length() : index;
+    }
+
+    // End of the line content that starts at lineStart, excluding the \r of a \r\n break
+    private int lineEnd(int lineStart, int newlineAt) {
+        if (newlineAt < text.length() && newlineAt > lineStart && text.charAt(newlineAt - 1) == '\r') {
+            return newlineAt - 1;
+        }
+        return newlineAt;
+    }
+
+    private void scanLine(int start, int end) {
+        int sentenceStart = start;
+        while (true) {
+            // Next whitespace run that directly follows sentence punctuation
+            int split = -1;
+            for (int k = sentenceStart + 1; k < end; k++) {
+                if (TokenDictionary.isWhitespace(text.charAt(k)) && isSentenceEnd(text.charAt(k - 1))) {
+                    split = k;
+                    break;
+                }
+            }
+
+            boolean last = split < 0;
+            boolean emitted = scanSentence(sentenceStart, last ? end : split);
+            if (last) {
+                return;
+            }
+            if (emitted) add(space);
+
+            int next = split;
+            while (next < end && TokenDictionary.isWhitespace(text.charAt(next))) next++;
+            sentenceStart = next;
+        }
+    }
+
+    private boolean scanSentence(int start, int end) {
+        while (start < end && text.charAt(start) <= ' ') start++;
+        while (end > start && text.charAt(end - 1) <= ' ') end--;
+        if (start == end) {
+            return false;
+        }
+
+        int words = 1;
+        for (int k = start; k < end; k++) {
+            if (TokenDictionary.isWhitespace(text.charAt(k)) && !TokenDictionary.isWhitespace(text.charAt(k - 1))) {
+                words++;
+            }
+        }
+
+        if (words <= MAX_PHRASE_WORDS) {
+            // Keep the whole sentence/phrase together, whitespace as-is
+            add(phrases.intern(text, start, end, false));
+            return true;
+        }
+
+        // Break into chunks of CHUNK_WORDS words joined by single spaces
+        int word = 0;
+        int chunkStart = start;
+        int k = start;
+        while (k < end) {
+            while (k < end && !TokenDictionary.isWhitespace(text.charAt(k))) k++;
+            int wordEnd = k;
+            word++;
+            while (k < end && TokenDictionary.isWhitespace(text.charAt(k))) k++;
+
+            if (word % CHUNK_WORDS == 0 || k == end) {
+                add(phrases.intern(text, chunkStart, wordEnd, true));
+                if (k < end) add(space);
+                chunkStart = k;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSentenceEnd(char c) {
+        return c == '.' || c == '!' || c == '?' || c == ';' || c == ',';
+    }
+
+    private void add(int id) {
+        if (count == ids.length) {
+            ids = Arrays.copyOf(ids, count * 2);
+        }
+        ids[count++] = id;
+    }
+}
@@ -0,0 +1,387 @@
+package com.emlcompare;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Measurements of the comparison pipeline. Every pair gets a PairMetrics; each stage run is
+// wrapped in a Span that records wall time, bytes, token and segment counts and the heap
+// allocated by the running thread, and emits a com.emlcompare.Stage JFR event (recorded only
+// while a flight recording with that event is active). Batch runs aggregate the pairs into
+// per-stage histograms and write everything to a JSON summary.
+//
+// Allocation is measured on the thread running the stage, so work a stage hands to the
+// common pool (parallel PDF page ranges, diff refinement) is not included.
+public class PipelineMetrics {
+
+    public enum Stage { PARSE, EXTRACT, DIFF, REPORT }
+
+    // Upper bounds of the wall time histogram buckets; the last bucket is unbounded
+    private static final long[] BUCKET_MILLIS = {
+        1, 2, 5, 10, 20, 50, 100, 200, 500, 1_000, 2_000, 5_000, 10_000, 30_000, 60_000
+    };
+
+    private static final com.sun.management.ThreadMXBean THREADS = allocationBean();
+
+    private final List<PairMetrics> pairs = new ArrayList<>();
+    private final Map<Stage, Histogram> histograms = new EnumMap<>(Stage.class);
+
+    public PipelineMetrics() {
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new Histogram());
+        }
+    }
+
+    // Totals of one stage of one pair; a stage that runs more than once (EXTRACT and DIFF run
+    // per attachment) adds up
+    public static class StageMetrics {
+        private int runs;
+        private long wallNanos;
+        private long bytes;
+        private long tokens;
+        private long segments;
+        private long allocatedBytes;
+
+        public int getRuns() { return runs; }
+        public long getWallNanos() { return wallNanos; }
+
+        // Size of the message files (PARSE), bytes hashed or fed to the PDF extractor (EXTRACT;
+        // text cache hits add none) or written (REPORT)
+        public long getBytes() { return bytes; }
+        public long getTokens() { return tokens; }
+        public long getSegments() { return segments; }
+        public long getAllocatedBytes() { return allocatedBytes; }
+    }
+
+    public static class PairMetrics {
+        private final String original;
+        private final String revised;
+        private final Map<Stage, StageMetrics> stages = new EnumMap<>(Stage.class);
+        private volatile boolean failed;
+
+        public PairMetrics(String original, String revised) {
+            this.original = original;
+            this.revised = revised;
+        }
+
+        public String getOriginal() { return original; }
+        public String getRevised() { return revised; }
+
+        public boolean isFailed() { return failed; }
+        public void setFailed(boolean failed) { this.failed = failed; }
+
+        public Span start(Stage stage) {
+            return new Span(this, stage);
+        }
+
+        // Copy of the totals for the stage; all zero when it never ran
+        public synchronized StageMetrics getStage(Stage stage) {
+            StageMetrics totals = stages.get(stage);
+            StageMetrics copy = new StageMetrics();
+            if (totals != null) {
+                copy.runs = totals.runs;
+                copy.wallNanos = totals.wallNanos;
+                copy.bytes = totals.bytes;
+                copy.tokens = totals.tokens;
+                copy.segments = totals.segments;
+                copy.allocatedBytes = totals.allocatedBytes;
+            }
+            return copy;
+        }
+
+        public synchronized long getWallNanos() {
+            return stages.values().stream().mapToLong(StageMetrics::getWallNanos).sum();
+        }
+
+        // One line for the console, e.g. "parse 12 ms · extract 340 ms · diff 25 ms · report 8 ms"
+        public String formatTimings() {
+            StringBuilder line = new StringBuilder();
+            for (Stage stage : Stage.values()) {
+                if (line.length() > 0) line.append(" · ");
+                line.append(stage.name().toLowerCase(Locale.ROOT)).append(' ')
+                    .append(Math.round(getStage(stage).getWallNanos() / 1e6)).append(" ms");
+            }
+            return line.toString();
+        }
+
+        private synchronized void add(Stage stage, long wallNanos, long bytes, long tokens, long segments,
+                                      long allocatedBytes) {
+            StageMetrics totals = stages.computeIfAbsent(stage, s -> new StageMetrics());
+            totals.runs++;
+            totals.wallNanos += wallNanos;
+            totals.bytes += bytes;
+            totals.tokens += tokens;
+            totals.segments += segments;
+            totals.allocatedBytes += allocatedBytes;
+        }
+    }
+
+    // One run of a stage, from start() to close() on the same thread
+    public static class Span implements AutoCloseable {
+        private final PairMetrics pair;
+        private final Stage stage;
+        private final StageEvent event = new StageEvent();
+        private final long startNanos;
+        private final long startAllocated;
+        private long bytes;
+        private long tokens;
+        private long segments;
+
+        private Span(PairMetrics pair, Stage stage) {
+            this.pair = pair;
+            this.stage = stage;
+            event.begin();
+            this.startAllocated = allocatedBytes();
+            this.startNanos = System.nanoTime();
+        }
+
+        public synchronized void addBytes(long count) { bytes += count; }
+        public void addTokens(long count) { tokens += count; }
+        public void addSegments(long count) { segments += count; }
+
+        // Wraps the stream so everything read through it is counted as bytes of this span
+        public InputStream count(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) addBytes(1);
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int n = super.read(buffer, offset, length);
+                    if (n > 0) addBytes(n);
+                    return n;
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            long wallNanos = System.nanoTime() - startNanos;
+            long allocated = THREADS != null ? allocatedBytes() - startAllocated : 0;
+            long bytesRead;
+            synchronized (this) {
+                bytesRead = bytes;
+            }
+            pair.add(stage, wallNanos, bytesRead, tokens, segments, allocated);
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.pair = pair.getOriginal() + " vs " + pair.getRevised();
+                event.stage = stage.name();
+                event.bytes = bytesRead;
+                event.tokens = tokens;
+                event.segments = segments;
+                event.allocated = allocated;
+                event.commit();
+            }
+        }
+    }
+
+    @Name("com.emlcompare.Stage")
+    @Label("Comparison Stage")
+    @Category("EML Compare")
+    @Description("One stage of comparing an EML pair")
+    static class StageEvent extends Event {
+        @Label("Pair")
+        String pair;
+
+        @Label("Stage")
+        String stage;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Tokens")
+        long tokens;
+
+        @Label("Segments")
+        long segments;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+
+    // Adds a finished (or failed) pair to the aggregate
+    public synchronized void record(PairMetrics pair) {
+        pairs.add(pair);
+        for (Stage stage : Stage.values()) {
+            StageMetrics totals = pair.getStage(stage);
+            if (totals.getRuns() > 0) {
+                histograms.get(stage).add(totals);
+            }
+        }
+    }
+
+    // Writes the per-stage aggregates and every pair, slowest first
+    public synchronized void writeJson(Path file, long elapsedMillis) throws IOException {
+        List<PairMetrics> slowestFirst = new ArrayList<>(pairs);
+        slowestFirst.sort(Comparator.comparingLong(PairMetrics::getWallNanos).reversed());
+
+        try (Writer json = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            json.write("{\n");
+            json.write("  \"elapsedMillis\": " + elapsedMillis + ",\n");
+            json.write("  \"pairCount\": " + pairs.size() + ",\n");
+            json.write("  \"failedCount\": " + pairs.stream().filter(PairMetrics::isFailed).count() + ",\n");
+
+            json.write("  \"stages\": {");
+            String separator = "\n";
+            for (Stage stage : Stage.values()) {
+                json.write(separator + "    " + quote(stageName(stage)) + ": ");
+                histograms.get(stage).writeJson(json);
+                separator = ",\n";
+            }
+            json.write("\n  },\n");
+
+            json.write("  \"pairs\": [");
+            separator = "\n";
+            for (PairMetrics pair : slowestFirst) {
+                json.write(separator + "    {\"original\": " + quote(pair.getOriginal())
+                           + ", \"revised\": " + quote(pair.getRevised())
+                           + ", \"failed\": " + pair.isFailed()
+                           + ", \"totalMillis\": " + millis(pair.getWallNanos())
+                           + ", \"stages\": {");
+                String stageSeparator = "";
+                for (Stage stage : Stage.values()) {
+                    StageMetrics totals = pair.getStage(stage);
+                    if (totals.getRuns() == 0) continue;
+                    json.write(stageSeparator + quote(stageName(stage)) + ": {\"runs\": " + totals.getRuns()
+                               + ", \"millis\": " + millis(totals.getWallNanos())
+                               + ", \"bytes\": " + totals.getBytes()
+                               + ", \"tokens\": " + totals.getTokens()
+                               + ", \"segments\": " + totals.getSegments()
+                               + ", \"allocatedBytes\": " + totals.getAllocatedBytes() + "}");
+                    stageSeparator = ", ";
+                }
+                json.write("}}");
+                separator = ",\n";
+            }
+            json.write("\n  ]\n");
+            json.write("}\n");
+        }
+    }
+
+    // Per-stage distribution of the pairs' wall time (log-spaced buckets) plus totals
+    private static final class Histogram {
+        private final long[] counts = new long[BUCKET_MILLIS.length + 1];
+        private long pairs;
+        private long runs;
+        private long totalNanos;
+        private long maxNanos;
+        private long bytes;
+        private long tokens;
+        private long segments;
+        private long allocatedBytes;
+
+        void add(StageMetrics totals) {
+            int bucket = 0;
+            while (bucket < BUCKET_MILLIS.length && totals.getWallNanos() > BUCKET_MILLIS[bucket] * 1_000_000) {
+                bucket++;
+            }
+            counts[bucket]++;
+            pairs++;
+            runs += totals.getRuns();
+            totalNanos += totals.getWallNanos();
+            maxNanos = Math.max(maxNanos, totals.getWallNanos());
+            bytes += totals.getBytes();
+            tokens += totals.getTokens();
+            segments += totals.getSegments();
+            allocatedBytes += totals.getAllocatedBytes();
+        }
+
+        // Upper bound of the bucket holding the given fraction of the pairs, capped at the maximum
+        private String percentileMillis(double fraction) {
+            long rank = (long) Math.ceil(fraction * pairs);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKET_MILLIS.length; bucket++) {
+                seen += counts[bucket];
+                if (seen >= rank) {
+                    return millis(Math.min(BUCKET_MILLIS[bucket] * 1_000_000, maxNanos));
+                }
+            }
+            return millis(maxNanos);
+        }
+
+        void writeJson(Writer json) throws IOException {
+            json.write("{\"pairs\": " + pairs
+                       + ", \"runs\": " + runs
+                       + ", \"totalMillis\": " + millis(totalNanos)
+                       + ", \"meanMillis\": " + millis(pairs == 0 ? 0 : totalNanos / pairs)
+                       + ", \"p50Millis\": " + percentileMillis(0.5)
+                       + ", \"p90Millis\": " + percentileMillis(0.9)
+                       + ", \"p99Millis\": " + percentileMillis(0.99)
+                       + ", \"maxMillis\": " + millis(maxNanos)
+                       + ", \"bytes\": " + bytes
+                       + ", \"tokens\": " + tokens
+                       + ", \"segments\": " + segments
+                       + ", \"allocatedBytes\": " + allocatedBytes
+                       + ", \"histogram\": [");
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                if (bucket > 0) json.write(", ");
+                String bound = bucket < BUCKET_MILLIS.length ? String.valueOf(BUCKET_MILLIS[bucket]) : "null";
+                json.write("{\"leMillis\": " + bound + ", \"count\": " + counts[bucket] + "}");
+            }
+            json.write("]}");
+        }
+    }
+
+    private static String stageName(Stage stage) {
+        return stage.name().toLowerCase(Locale.ROOT);
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static long allocatedBytes() {
+        return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    // Null when the JVM cannot report per-thread allocation; the allocation figures are then 0
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads;
+            }
+        }
+        return null;
+    }
+}
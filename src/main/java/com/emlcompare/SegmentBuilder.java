@@ -0,0 +1,94 @@
+package com.emlcompare;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Append-only store of diff runs. Each run is (type, start, end) into the token array of one
+// side: UNCHANGED and DELETED runs point into the original tokens, INSERTED runs into the
+// revised tokens. Adjacent tokens of the same type are merged as they are added, and token
+// text is only looked up when a run is rendered.
+final class SegmentBuilder {
+
+    private static final InlineDiffGenerator.DiffSegment.Type[] TYPES = InlineDiffGenerator.DiffSegment.Type.values();
+
+    private final TokenDictionary dictionary;
+    private final int[] original;
+    private final int[] revised;
+
+    private byte[] types = new byte[16];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int count;
+
+    SegmentBuilder(TokenDictionary dictionary, int[] original, int[] revised) {
+        this.dictionary = dictionary;
+        this.original = original;
+        this.revised = revised;
+    }
+
+    // Adds the token at the given index, walking forward through the sequences
+    void add(InlineDiffGenerator.DiffSegment.Type type, int index) {
+        if (count > 0 && types[count - 1] == type.ordinal() && ends[count - 1] == index) {
+            ends[count - 1] = index + 1;
+            return;
+        }
+        push(type, index, index + 1);
+    }
+
+    // Adds the token at the given index, walking backward through the sequences.
+    // Call reverse() once when done.
+    void addBackward(InlineDiffGenerator.DiffSegment.Type type, int index) {
+        if (count > 0 && types[count - 1] == type.ordinal() && starts[count - 1] == index + 1) {
+            starts[count - 1] = index;
+            return;
+        }
+        push(type, index, index + 1);
+    }
+
+    void reverse() {
+        for (int lo = 0, hi = count - 1; lo < hi; lo++, hi--) {
+            byte type = types[lo]; types[lo] = types[hi]; types[hi] = type;
+            int start = starts[lo]; starts[lo] = starts[hi]; starts[hi] = start;
+            int end = ends[lo]; ends[lo] = ends[hi]; ends[hi] = end;
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    InlineDiffGenerator.DiffSegment.Type type(int run) {
+        return TYPES[types[run]];
+    }
+
+    void appendText(int run, Appendable out) throws IOException {
+        int[] tokens = types[run] == InlineDiffGenerator.DiffSegment.Type.INSERTED.ordinal() ? revised : original;
+        for (int k = starts[run]; k < ends[run]; k++) {
+            out.append(dictionary.text(tokens[k]));
+        }
+    }
+
+    String text(int run) {
+        StringBuilder text = new StringBuilder();
+        try {
+            appendText(run, text);
+        } catch (IOException e) {
+            // StringBuilder does not throw
+            throw new IllegalStateException(e);
+        }
+        return text.toString();
+    }
+
+    private void push(InlineDiffGenerator.DiffSegment.Type type, int start, int end) {
+        if (count == types.length) {
+            int capacity = count * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        types[count] = (byte) type.ordinal();
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+}
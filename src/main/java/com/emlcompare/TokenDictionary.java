@@ -0,0 +1,132 @@
+package com.emlcompare;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Maps each distinct token to a dense int ID so the diff core can compare primitives.
+// One dictionary is shared by both sides of a comparison so equal tokens get equal IDs.
+// Tokens can be interned straight from a region of the source text; a String is only
+// allocated the first time a token is seen.
+final class TokenDictionary {
+
+    private final List<String> texts = new ArrayList<>();
+    private int[] hashes = new int[64];
+    // Open-addressing table of id + 1 (0 marks an empty slot)
+    private int[] slots = new int[128];
+
+    int intern(String token) {
+        return intern(token, 0, token.length(), false);
+    }
+
+    // Interns text[start, end). When collapseWhitespace is set, every run of whitespace
+    // inside the region is treated as a single ' ' (the way String.join(" ", words) would).
+    int intern(CharSequence text, int start, int end, boolean collapseWhitespace) {
+        int hash = 0;
+        boolean inWhitespace = false;
+        for (int k = start; k < end; k++) {
+            char c = text.charAt(k);
+            if (collapseWhitespace && isWhitespace(c)) {
+                if (inWhitespace) continue;
+                inWhitespace = true;
+                c = ' ';
+            } else {
+                inWhitespace = false;
+            }
+            hash = 31 * hash + c;
+        }
+
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && regionEquals(texts.get(id), text, start, end, collapseWhitespace)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int id = texts.size();
+        texts.add(collapseWhitespace ? collapse(text, start, end) : text.subSequence(start, end).toString());
+        if (id == hashes.length) {
+            hashes = Arrays.copyOf(hashes, id * 2);
+        }
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        if (texts.size() * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    int[] encode(List<String> tokens) {
+        int[] encoded = new int[tokens.size()];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = intern(tokens.get(i));
+        }
+        return encoded;
+    }
+
+    String text(int id) {
+        return texts.get(id);
+    }
+
+    // Same set of characters as the regex \s
+    static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean regionEquals(String token, CharSequence text, int start, int end, boolean collapseWhitespace) {
+        int t = 0;
+        boolean inWhitespace = false;
+        for (int k = start; k < end; k++) {
+            char c = text.charAt(k);
+            if (collapseWhitespace && isWhitespace(c)) {
+                if (inWhitespace) continue;
+                inWhitespace = true;
+                c = ' ';
+            } else {
+                inWhitespace = false;
+            }
+            if (t == token.length() || token.charAt(t) != c) {
+                return false;
+            }
+            t++;
+        }
+        return t == token.length();
+    }
+
+    private static String collapse(CharSequence text, int start, int end) {
+        StringBuilder collapsed = new StringBuilder(end - start);
+        boolean inWhitespace = false;
+        for (int k = start; k < end; k++) {
+            char c = text.charAt(k);
+            if (isWhitespace(c)) {
+                if (!inWhitespace) collapsed.append(' ');
+                inWhitespace = true;
+            } else {
+                collapsed.append(c);
+                inWhitespace = false;
+            }
+        }
+        return collapsed.toString();
+    }
+
+    private void rehash() {
+        int[] resized = new int[slots.length * 2];
+        int mask = resized.length - 1;
+        for (int id = 0; id < texts.size(); id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (resized[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            resized[slot] = id + 1;
+        }
+        slots = resized;
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
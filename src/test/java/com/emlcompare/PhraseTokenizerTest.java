@@ -0,0 +1,103 @@
+package com.emlcompare;
+
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// PhraseTokenizer must split text exactly where the original regex tokenizer
+// (InlineDiffGenerator.tokenize) does; the LCS parity mode and the diff output depend on it.
+class PhraseTokenizerTest {
+
+    private static final String[] WORDS = {
+        "factura", "client", "total", "plată", "kWh", "123,45", "TVA", "a", "x.y", "end.", "why?", "no!", "semi;"
+    };
+
+    // Separators the two tokenizers could disagree on: line breaks in every combination,
+    // control characters (trimmed by String.trim but not all matched by \s), NBSP and the
+    // Unicode line/paragraph separators (neither trimmed nor \s)
+    private static final String[] SEPARATORS = {
+        " ", " ", " ", "  ", "\t", "\n", "\r\n", "\r", "\n\n", "\r\n\r\n", "\n\r",
+        "\u000B", "\f", "\u0000", "\u0001", "\u001C", "\u001F", "\u00A0", "\u2028", "\u2029",
+        ". ", ", ", "; ", "! ", "? ", ".\t", ",\n", " \n ", "\n \n"
+    };
+
+    @Test
+    void randomTextMatchesRegexTokenizer() {
+        Random random = new Random(20_250_117L);
+        for (int i = 0; i < 20_000; i++) {
+            assertSameTokens(randomText(random));
+        }
+    }
+
+    @Test
+    void longSentencesAreChunkedLikeRegexTokenizer() {
+        Random random = new Random(42L);
+        for (int words : new int[] {14, 15, 16, 23, 24, 25, 36, 37, 60}) {
+            for (int i = 0; i < 50; i++) {
+                StringBuilder text = new StringBuilder();
+                for (int w = 0; w < words; w++) {
+                    if (w > 0) text.append(random.nextInt(4) == 0 ? "\t " : random.nextBoolean() ? " " : "  ");
+                    text.append(WORDS[random.nextInt(WORDS.length)].replaceAll("[.,;!?]", ""));
+                }
+                assertSameTokens(text.toString());
+                assertSameTokens("  " + text + ". " + text + "\r\n" + text + "\u00A0" + text + "\n");
+            }
+        }
+    }
+
+    @Test
+    void lineBreakEdgeCasesMatchRegexTokenizer() {
+        String[] cases = {
+            "", " ", "\n", "\r\n", "\r", "\n\n\n", "a", "a\n", "a\r\n", "a\r", "\ra", "\r\na",
+            "\n\na\n\n", "a\r\r\nb", "a\n\rb", "a\u2028b", "\u2028", "\u00A0", "a,\u00A0b", "a.\u2028b",
+            "a. b. c.", "a.  \t b", ". . .", "a\u0000b", "\u0001a\u0001", "a \n \n b \r\n \r\n"
+        };
+        for (String text : cases) {
+            assertSameTokens(text);
+        }
+    }
+
+    private static String randomText(Random random) {
+        StringBuilder text = new StringBuilder();
+        int parts = random.nextInt(60);
+        for (int p = 0; p < parts; p++) {
+            if (random.nextInt(10) == 0) {
+                // A run of words without punctuation, often longer than the phrase limit
+                int words = 10 + random.nextInt(30);
+                for (int w = 0; w < words; w++) {
+                    text.append(WORDS[random.nextInt(7)]).append(random.nextInt(5) == 0 ? "\t" : " ");
+                }
+            } else if (random.nextBoolean()) {
+                text.append(WORDS[random.nextInt(WORDS.length)]);
+            } else {
+                text.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+            }
+        }
+        return text.toString();
+    }
+
+    private static void assertSameTokens(String text) {
+        TokenDictionary dictionary = new TokenDictionary();
+        PhraseTokenizer.Tokens tokens = PhraseTokenizer.tokenize(text, dictionary, new TokenDictionary());
+        List<String> decoded = new ArrayList<>();
+        for (int id : tokens.ids) {
+            decoded.add(dictionary.text(id));
+        }
+        assertEquals(InlineDiffGenerator.tokenize(text), decoded, () -> "Input: " + escape(text));
+    }
+
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            if (c < 0x20 || c > 0x7E) {
+                escaped.append(String.format("\\u%04X", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.append('"').toString();
+    }
+}